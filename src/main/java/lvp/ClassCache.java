@@ -0,0 +1,196 @@
+package lvp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import lvp.skills.Stats;
+import lvp.skills.logging.Logger;
+
+// Compiles Java sources of the default command once and keeps the classes on disk, so a
+// rerun of an unchanged source starts the program directly with `java -cp`. An entry is
+// found by the hash of the source, its path, the compiler options and the JDK version.
+// Other sources javac picked up from the same directory are listed in the entry with
+// their hash and checked on every lookup. The least recently used entries are deleted
+// once the cache grows beyond its size.
+//
+// Layout: <dir>/<key>/entry holds the main class and the compiled sources, <dir>/<key>/classes the class files.
+class ClassCache {
+    record Entry(Path classes, String mainClass, List<Path> sources) {}
+
+    static final Path DEFAULT_DIR = Path.of(System.getProperty("java.io.tmpdir"), "lvp-classes");
+    static final long DEFAULT_SIZE = 256L * 1024 * 1024;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    ClassCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        Logger.logInfo("Class cache in " + dir.toAbsolutePath());
+    }
+
+    // Empty if the source does not compile, the launcher then reports the errors as usual
+    Optional<Entry> lookup(Path source) {
+        try {
+            String key = key(source, Files.readAllBytes(source));
+            Path entryDir = dir.resolve(key);
+            synchronized (locks.computeIfAbsent(key, _ -> new Object())) {
+                Optional<Entry> cached = read(entryDir);
+                if (cached.isPresent()) {
+                    Files.setLastModifiedTime(entryDir.resolve("entry"), FileTime.fromMillis(System.currentTimeMillis()));
+                    Stats.increment("classcache.hit");
+                    return cached;
+                }
+                Stats.increment("classcache.miss");
+                Optional<Entry> compiled = compile(source, entryDir);
+                if (compiled.isPresent()) evict(entryDir);
+                return compiled;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            Logger.logError("Class cache not usable for " + source, e);
+            return Optional.empty();
+        }
+    }
+
+    private Optional<Entry> read(Path entryDir) throws IOException {
+        Path entry = entryDir.resolve("entry");
+        if (!Files.isRegularFile(entry)) return Optional.empty();
+        List<String> lines = Files.readAllLines(entry, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) return Optional.empty();
+
+        // Other sources are compared by content, not by time stamp
+        List<Path> sources = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] parts = line.split(" ", 2);
+            Path file = Path.of(parts[1]);
+            if (!Files.isRegularFile(file) || !parts[0].equals(hash(Files.readAllBytes(file)))) return Optional.empty();
+            sources.add(file);
+        }
+        return Optional.of(new Entry(entryDir.resolve("classes"), lines.getFirst(), sources));
+    }
+
+    private Optional<Entry> compile(Path source, Path entryDir) throws IOException {
+        long start = System.nanoTime();
+        Path tmp = Files.createTempDirectory(dir, entryDir.getFileName() + ".");
+        try {
+            Path classes = Files.createDirectory(tmp.resolve("classes"));
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+                files.setLocationFromPaths(StandardLocation.CLASS_OUTPUT, List.of(classes));
+                JavacTask task = (JavacTask) compiler.getTask(null, files, diagnostics, Worker.options(source), null, files.getJavaFileObjects(source));
+
+                Set<Path> compiled = ConcurrentHashMap.newKeySet();
+                task.addTaskListener(new TaskListener() {
+                    @Override
+                    public void finished(TaskEvent e) {
+                        if (e.getKind() == TaskEvent.Kind.PARSE) compiled.add(Path.of(e.getSourceFile().toUri()));
+                    }
+                });
+                String mainClass = Worker.mainClass(task.parse(), source);
+                task.generate();
+
+                if (diagnostics.getDiagnostics().stream().anyMatch(d -> d.getKind() == Diagnostic.Kind.ERROR)) {
+                    Logger.logInfo("Compile errors in " + source + ", running it with the launcher");
+                    return Optional.empty();
+                }
+
+                List<String> entry = new ArrayList<>(List.of(mainClass));
+                for (Path file : compiled) {
+                    if (!Files.isSameFile(file, source)) entry.add(hash(Files.readAllBytes(file)) + " " + file.toAbsolutePath());
+                }
+                Files.write(tmp.resolve("entry"), entry, StandardCharsets.UTF_8);
+            }
+
+            // An outdated entry of the same source is replaced
+            delete(entryDir);
+            Files.move(tmp, entryDir, StandardCopyOption.ATOMIC_MOVE);
+            Stats.record("classcache.compile.ms", (System.nanoTime() - start) / 1_000_000);
+            return read(entryDir);
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    // Deletes the least recently used entries until the cache fits its size again
+    private void evict(Path keep) throws IOException {
+        record Usage(Path dir, long lastUsed, long bytes) {}
+        List<Usage> usages = new ArrayList<>();
+        try (Stream<Path> entries = Files.list(dir)) {
+            for (Path entryDir : entries.filter(p -> Files.isRegularFile(p.resolve("entry"))).toList()) {
+                usages.add(new Usage(entryDir, Files.getLastModifiedTime(entryDir.resolve("entry")).toMillis(), size(entryDir)));
+            }
+        }
+        long total = usages.stream().mapToLong(Usage::bytes).sum();
+        usages.sort(Comparator.comparingLong(Usage::lastUsed));
+        for (Usage usage : usages) {
+            if (total <= maxBytes) break;
+            if (usage.dir().equals(keep)) continue;
+            delete(usage.dir());
+            total -= usage.bytes();
+            Stats.increment("classcache.evicted");
+        }
+    }
+
+    private static String key(Path source, byte[] content) {
+        return hash(content, source.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8),
+            String.join(" ", Worker.options(source)).getBytes(StandardCharsets.UTF_8),
+            Runtime.version().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hash(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] part : parts) {
+                digest.update(part);
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long size(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(file);
+        }
+    }
+}
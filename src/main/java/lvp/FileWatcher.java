@@ -1,161 +1,397 @@
 package lvp;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
+import lvp.skills.Dependencies;
+import lvp.skills.Stats;
 import lvp.skills.logging.Logger;
+import lvp.skills.parser.ConfigParser;
+import lvp.skills.parser.IgnoreRules;
+import lvp.skills.parser.ConfigParser.SourceSpec;
 import lvp.skills.parser.ConfigParser.Source;
 
 public class FileWatcher {
     private WatchService watcher;
     private ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
-    private Map<Path, Instant> lastModified = new ConcurrentHashMap<>();
+    private RunScheduler scheduler;
+    private Map<Path, String> contentHashes = new ConcurrentHashMap<>();
+    private Map<Path, IgnoreRules> watched = new ConcurrentHashMap<>();
+    private IgnoreRules ignore;
     private boolean isRunning = true;
-    private static final Duration DEBOUNCE_DURATION = Duration.ofMillis(500);
+    private final Duration debounce;
     
-    List<Source> sources;
+    SourceRegistry sources;
     Processor processor;
     Optional<PathMatcher> watchFilter;
     boolean sourceOnly;
+    Optional<WorkerPool> workers;
+    Optional<ClassCache> classCache;
+    Optional<Path> config;
     
-    public FileWatcher(List<Source> sources, Optional<String> watchFilter, boolean sourceOnly, Processor processor) throws IOException{
+    public FileWatcher(SourceRegistry sources, WatchOptions options, Optional<WorkerPool> workers, Optional<ClassCache> classCache, Processor processor) throws IOException{
         this.processor = processor;
+        this.debounce = options.debounce();
+        this.scheduler = new RunScheduler(options.maxRuns(), this::run);
+        this.workers = workers;
+        this.classCache = classCache;
         this.sources = sources;
-        this.watchFilter = watchFilter.isEmpty() ? Optional.empty() : 
-            Optional.of(FileSystems.getDefault().getPathMatcher("glob:" + watchFilter.get()));
-        this.sourceOnly = sourceOnly;
+        this.watchFilter = options.watchFilter().isEmpty() ? Optional.empty() : 
+            Optional.of(FileSystems.getDefault().getPathMatcher("glob:" + options.watchFilter().get()));
+        this.sourceOnly = options.sourceOnly();
+        this.config = options.config();
         
         watcher = FileSystems.getDefault().newWatchService();
-        
-        (sourceOnly ? getSourceFolder(sources) : getFolderTree())
-            .map(Path::normalize)
-            .distinct()
-            .forEach(dir -> {
-                try {
-                    dir.register(watcher,
-                        StandardWatchEventKinds.ENTRY_CREATE,
-                        StandardWatchEventKinds.ENTRY_MODIFY);
-                    Logger.logInfo("Watching in " + dir.toAbsolutePath() + "");
-                } catch (IOException e) {
-                    Logger.logError("Error registering directory for watching: " + dir.toAbsolutePath(), e);
-                }
-            });
-        
+        Stats.gauge("watch.directories", watched::size);
+
+        long start = System.nanoTime();
+        ignore = IgnoreRules.of(options.ignore());
+        if (sourceOnly) {
+            Stream.concat(getSourceFolder(sources.all()), config.map(Path::getParent).stream())
+                .distinct().forEach(dir -> register(dir, ignore));
+        } else {
+            registerTree(Path.of("").toAbsolutePath(), ignore);
+        }
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        Stats.record("watch.register.ms", ms);
+        Logger.logInfo("Watching " + watched.size() + " directories (" + ms + " ms)");
     }
 
-    private Stream<Path> getSourceFolder(List<Source> input) {
+    private Stream<Path> getSourceFolder(Collection<Source> input) {
         return input.stream()
                 .map(Source::path)
+                .map(Path::toAbsolutePath)
+                .map(Path::normalize)
                 .map(Path::getParent)            
                 .filter(Objects::nonNull);
     }
 
-    private Stream<Path> getFolderTree() {
-        return Stream.of(Path.of("."))
-                .flatMap(root -> {
-                    try {
-                        return Files.find(root, Integer.MAX_VALUE, 
-                            (_, attrs) -> attrs.isDirectory()).filter(p -> !p.toString().startsWith(".git"));
-                    } catch (IOException e) {
-                        Logger.logError("Error walking directory: " + root.toAbsolutePath(), e);
-                        return Stream.empty();
+    // Registers the directory and all below it that are not ignored, and returns the files found on the way
+    private List<Path> registerTree(Path root, IgnoreRules inherited) {
+        List<Path> files = new ArrayList<>();
+        Deque<IgnoreRules> rules = new ArrayDeque<>(List.of(inherited));
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(root) && rules.peek().ignores(dir, true)) {
+                        Logger.logDebug("Ignoring " + dir);
+                        return FileVisitResult.SKIP_SUBTREE;
                     }
-                });
+                    IgnoreRules current = rules.peek().withGitIgnore(dir);
+                    rules.push(current);
+                    register(dir, current);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && !rules.peek().ignores(file, false)) files.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    Logger.logDebug("Cannot read " + file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    rules.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            Logger.logError("Error walking directory: " + root, e);
+        }
+        return files;
+    }
+
+    private void register(Path dir, IgnoreRules rules) {
+        try {
+            dir.register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+            watched.put(dir, rules);
+            Logger.logDebug("Watching in " + dir);
+        } catch (IOException e) {
+            Logger.logError("Error registering directory for watching: " + dir, e);
+        }
     }
 
     public void start() {
-        for (Source source : sources) {
+        for (Source source : sources.all()) {
             Logger.logInfo("Running initial file: " + source.path());
-            lastModified.put(source.path(), Instant.now());
-            executor.submit(() -> run(source));
+            contentHash(source.path()).ifPresent(hash -> contentHashes.put(source.path(), hash));
+            scheduler.submit(source);
         }
+        config.ifPresent(file -> contentHash(file).ifPresent(hash -> contentHashes.put(file, hash)));
         executor.submit(this::watchLoop);
     }
 
+    // Trailing-edge debounce: changes are collected until no event arrived for the debounce window,
+    // so a burst of saves leads to one decision on the final content. A file written all the time
+    // cannot hold back the others for longer than ten windows.
     private void watchLoop() {
+        Map<Path, Path> changes = new LinkedHashMap<>();
+        long firstChange = 0, deadline = 0;
         while (isRunning) {
-            WatchKey key;
             try {
-                key = watcher.take();
-                processWatchKeyEvents(key);
+                WatchKey key;
+                if (changes.isEmpty()) {
+                    key = watcher.take();
+                } else {
+                    long now = System.nanoTime();
+                    long wait = Math.min(deadline, firstChange + debounce.toNanos() * 10) - now;
+                    key = wait > 0 ? watcher.poll(wait, TimeUnit.NANOSECONDS) : null;
+                }
+
+                if (key == null) {
+                    Stats.record("watch.debounce.ms", (System.nanoTime() - firstChange) / 1_000_000);
+                    Stats.record("watch.changeset.size", changes.size());
+                    processChanges(changes);
+                    changes = new LinkedHashMap<>();
+                    continue;
+                }
+
+                if (changes.isEmpty()) firstChange = System.nanoTime();
+                // Events for ignored files do not hold back the pending changes
+                if (collectEvents(key, changes)) deadline = System.nanoTime() + debounce.toNanos();
+                if (!key.reset()) {
+                    // Deleted or moved away
+                    watched.remove((Path) key.watchable());
+                    Logger.logInfo("No longer watching in " + key.watchable());
+                }
             } catch (ClosedWatchServiceException | InterruptedException e) {
                 if (isRunning)
                     Logger.logError("Watcher loop terminated due to exception: " + e.getMessage(), e);
                 if (e instanceof InterruptedException) Thread.currentThread().interrupt();
                 break;
             }
-            if (!key.reset()) isRunning = false;
         }
     }
 
-    private void processWatchKeyEvents(WatchKey key) {
+    // Full path of every changed file with the name the watch filter applies to,
+    // true if at least one change was collected
+    private boolean collectEvents(WatchKey key, Map<Path, Path> changes) {
+        boolean collected = false;
         for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                Logger.logError("Watch events lost in " + key.watchable());
+                continue;
+            }
             Path changedFile = (Path) ev.context();
-            if (Files.isDirectory(changedFile)) continue;
-
             Path watchedDir = (Path) key.watchable();
             Path fullPath = watchedDir.resolve(changedFile).normalize().toAbsolutePath();
+            IgnoreRules rules = watched.getOrDefault(watchedDir, ignore);
+
+            if (Files.isDirectory(fullPath)) {
+                // Files may have been created in the new directory before it was registered
+                if (!sourceOnly && ev.kind() == StandardWatchEventKinds.ENTRY_CREATE && !rules.ignores(fullPath, true)) {
+                    long start = System.nanoTime();
+                    for (Path file : registerTree(fullPath, rules)) {
+                        changes.put(file, file.getFileName());
+                        collected = true;
+                    }
+                    Logger.logInfo("Watching new directory " + fullPath + " (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                }
+                continue;
+            }
+            if (rules.ignores(fullPath, false) && sources.get(fullPath).isEmpty() && !isConfig(fullPath)) continue;
+
+            Logger.logDebug("Event for " + fullPath + " (" + ev.kind().name() + ")");
+            changes.put(fullPath, changedFile);
+            collected = true;
+        }
+        return collected;
+    }
+
+    // One rerun decision for all changes of a burst, each affected source runs once. A deleted
+    // source is removed with its subview, a new file matching a glob of the sources becomes one.
+    private void processChanges(Map<Path, Path> changes) {
+        Set<Source> affected = new LinkedHashSet<>();
+        changes.forEach((fullPath, changedFile) -> {
+            if (!contentChanged(fullPath)) {
+                Logger.logDebug("Content unchanged: " + fullPath);
+                return;
+            }
 
-            Instant now = Instant.now();
-            Instant last = lastModified.getOrDefault(fullPath, Instant.EPOCH);
-            Logger.logDebug(last + " -> " + now + " (" + Duration.between(last, now).toMillis() + "ms)");
-            if (Duration.between(last, now).compareTo(DEBOUNCE_DURATION) < 0) return;
-            lastModified.put(fullPath, now);
+            if (isConfig(fullPath)) {
+                reloadConfig(affected);
+                return;
+            }
+
+            if (!Files.exists(fullPath)) {
+                // Only the sources that used a deleted file notice it
+                sources.remove(fullPath).ifPresent(this::remove);
+                Logger.logInfo("Deleted: " + fullPath);
+                sources.all().stream().filter(s -> dependsOn(s, fullPath)).forEach(affected::add);
+                return;
+            }
 
-            Optional<Source> source = sources.stream()
-                .filter(s -> s.path().equals(fullPath))
-                .findFirst();
+            Optional<Source> source = sources.get(fullPath).or(() -> sources.discover(fullPath));
             if (source.isPresent()) {
-                Logger.logInfo("Event for source: " + fullPath + " (" + ev.kind().name() + ")");
-                executor.submit(() -> run(source.get()));
+                Logger.logInfo("Change of source: " + fullPath);
+                affected.add(source.get());
+                sources.all().stream().filter(s -> dependsOn(s, fullPath)).forEach(affected::add);
             }
             else if (!sourceOnly && (watchFilter.isEmpty() || watchFilter.get().matches(changedFile))) {
-                Logger.logInfo("Event for file: " + fullPath + " (" + ev.kind().name() + ")");
-                execute(sources);
+                // Nobody knows whether a program reads a file no run has used so far, except sources with an include list
+                boolean known = Dependencies.isKnown(fullPath);
+                Logger.logInfo("Change of file: " + fullPath);
+                sources.all().stream()
+                    .filter(s -> dependsOn(s, fullPath) || !known && s.include().isEmpty())
+                    .forEach(affected::add);
             }
+        });
+        // A source may have been deleted or reconfigured after it changed in the same burst
+        List<Source> runs = affected.stream().map(s -> sources.get(s.path())).flatMap(Optional::stream).distinct().toList();
+        if (runs.isEmpty()) return;
+
+        int total = sources.all().size();
+        Logger.logInfo("Rerunning " + runs.size() + " of " + total + " sources for " + changes.size() + " changed files");
+        Stats.add("watch.reruns.skipped", total - runs.size());
+        runs.forEach(scheduler::submit);
+    }
+
+    private boolean isConfig(Path file) {
+        return config.filter(file::equals).isPresent();
+    }
+
+    // Added sources run and removed ones disappear with their view. Of the others only those
+    // with a new command run again, the rest keep their view. An invalid config changes nothing.
+    private void reloadConfig(Set<Source> affected) {
+        Optional<List<SourceSpec>> specs = ConfigParser.parse(config.get());
+        if (specs.isEmpty()) {
+            Logger.logError("Keeping the current sources, " + config.get() + " could not be loaded");
+            return;
         }
+        Stats.increment("config.reloads");
+        SourceRegistry.Reload reload = sources.reload(specs.get());
+        reload.removed().forEach(this::remove);
+        for (Source source : reload.added()) {
+            contentHash(source.path()).ifPresent(hash -> contentHashes.put(source.path(), hash));
+            Path dir = source.path().getParent();
+            if (sourceOnly && dir != null && !watched.containsKey(dir)) register(dir, ignore);
+            affected.add(source);
+        }
+        affected.addAll(reload.changed());
+    }
+
+    private void remove(Source source) {
+        scheduler.remove(source.id());
+        processor.remove(source.id());
+    }
+
+    // Editors and formatters often write files without changing them. Unreadable files count as changed.
+    private boolean contentChanged(Path file) {
+        Optional<String> hash = contentHash(file);
+        String previous = hash.isPresent() ? contentHashes.put(file, hash.get()) : contentHashes.remove(file);
+        boolean changed = hash.isEmpty() || !hash.get().equals(previous);
+        Stats.increment(changed ? "watch.accepted" : "watch.suppressed");
+        return changed;
     }
 
-    private void execute(List<Source> sources) {
-        for (Source source : sources) {
-            executor.submit(() -> run(source));
+    private static Optional<String> contentHash(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            for (int n; (n = in.read(buffer)) != -1; ) digest.update(buffer, 0, n);
+            return Optional.of(HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException | NoSuchAlgorithmException _) {
+            return Optional.empty();
         }
     }
 
+    private static boolean dependsOn(Source source, Path file) {
+        return Dependencies.dependsOn(source.id(), file) || source.includes(file);
+    }
+
     public void stop() {
         isRunning = false;
         if (watcher != null) try { watcher.close(); } catch (IOException _) { }
         if (executor != null) executor.shutdownNow();
+        scheduler.stop();
     }
 
-    private void run(Source source) {
+    // Output after a cancellation is dropped, a newer run of the source is waiting
+    private void run(Source source, RunScheduler.Job job) {
         processor.init(source.id());
+        long start = System.nanoTime();
         try {
+            Optional<ClassCache.Entry> compiled = classCache.filter(_ -> WorkerPool.accepts(source)).flatMap(c -> c.lookup(source.path()));
+            if (WorkerPool.accepts(source)) recordJavaSources(source, compiled);
+            Optional<WorkerPool.Run> run = workers.filter(_ -> WorkerPool.accepts(source)).flatMap(w -> w.run(source.path(), compiled));
+            if (run.isPresent()) {
+                Logger.logInfo("Running in worker: " + source.path());
+                job.attach(run.get().process());
+                try (Stream<String> lines = LineQueue.of(run.get().lines(), processor.options.lineQueue(), () -> RunScheduler.Job.kill(run.get().process()))) {
+                    processor.process(run.get().process(), timeFirstLine(lines, start, "run.first.worker.ms").takeWhile(_ -> !job.cancelled()), source.id());
+                } finally {
+                    run.get().finish();
+                }
+                return;
+            }
+
             boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
-            Logger.logInfo("Running: " + source.cmd() + " " + source.path());
-            ProcessBuilder pb = new ProcessBuilder(isWindows ? new String[]{"cmd.exe", "/c", source.cmd(), '"' + source.path().toString()  + '"'} : new String[]{"sh", "-c", source.cmd() + " " + '"' + source.path().toString() + '"'})
-                .redirectErrorStream(true);
+            ProcessBuilder pb;
+            if (compiled.isPresent()) {
+                // Same JVM as the compiler, the classes are compiled for its release
+                Logger.logInfo("Running cached classes of: " + source.path());
+                pb = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Dsun.stdout.encoding=UTF-8", "--enable-preview", "-cp", compiled.get().classes().toString(), compiled.get().mainClass());
+            } else {
+                Logger.logInfo("Running: " + source.cmd() + " " + source.path());
+                pb = new ProcessBuilder(isWindows ? new String[]{"cmd.exe", "/c", source.cmd(), '"' + source.path().toString()  + '"'} : new String[]{"sh", "-c", source.cmd() + " " + '"' + source.path().toString() + '"'});
+            }
+            pb.redirectErrorStream(true);
             Process process = pb.start();
-            processor.process(process, source.id());
+            job.attach(process);
+            try (BufferedReader reader = process.inputReader(StandardCharsets.UTF_8);
+                 Stream<String> lines = LineQueue.of(reader.lines(), processor.options.lineQueue(), () -> RunScheduler.Job.kill(process))) {
+                processor.process(process, timeFirstLine(lines, start, "run.first.process.ms").takeWhile(_ -> !job.cancelled()), source.id());
+            }
+            if (job.cancelled()) {
+                Logger.logInfo("Run cancelled: " + source.path());
+                return;
+            }
 
             boolean finished = process.waitFor(10, TimeUnit.SECONDS);
             if (!finished) {
@@ -167,6 +403,35 @@ public class FileWatcher {
 
         } catch (Exception e) {
             Logger.logError("Error in Java Process", e);
+        } finally {
+            if (job.cancelled()) processor.abort(source.id());
+            else processor.finish(source.id());
+        }
+    }
+
+    // The launcher also compiles other sources of the directory. Unless the class cache knows which ones,
+    // any Java file next to the source counts, except other sources.
+    private void recordJavaSources(Source source, Optional<ClassCache.Entry> compiled) {
+        if (compiled.isPresent()) {
+            compiled.get().sources().forEach(file -> Dependencies.record(source.id(), file));
+            return;
+        }
+        Path dir = source.path().toAbsolutePath().getParent();
+        if (dir == null) return;
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.toString().endsWith(".java"))
+                .filter(file -> sources.get(file).isEmpty())
+                .forEach(file -> Dependencies.record(source.id(), file));
+        } catch (IOException e) {
+            Logger.logError("Error listing " + dir, e);
         }
     }
+
+    // Time from the change to the first output of the program, compare both kinds with '/stats'
+    private static Stream<String> timeFirstLine(Stream<String> lines, long start, String stat) {
+        AtomicBoolean first = new AtomicBoolean(true);
+        return lines.peek(_ -> {
+            if (first.getAndSet(false)) Stats.record(stat, (System.nanoTime() - start) / 1_000_000);
+        });
+    }
 }
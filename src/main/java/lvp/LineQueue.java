@@ -0,0 +1,96 @@
+package lvp;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import lvp.skills.Stats;
+import lvp.skills.logging.Logger;
+
+// Reads the output of a program on its own thread into a bounded queue, so a slow sink or
+// service does not make the program wait in println. The reader only waits when the queue
+// is full, and the program only when the pipe to the reader is full as well.
+class LineQueue {
+    private LineQueue() {}
+
+    // Closing the returned stream stops the reader, also if the rest of the output is not consumed.
+    // A reader blocked in readLine does not notice an interrupt, so unless the output was read to
+    // the end, closing also runs stop, which has to end the source, e.g. by destroying the process.
+    static Stream<String> of(Stream<String> lines, int capacity, Runnable stop) {
+        if (capacity <= 0) return lines;
+
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(capacity);
+        String end = new String(); // compared by identity, a program may print empty lines
+        AtomicBoolean exhausted = new AtomicBoolean(false);
+        Thread reader = Thread.ofVirtual().start(() -> {
+            long blocked = 0;
+            int high = 0;
+            try (lines) {
+                Iterator<String> it = lines.iterator();
+                while (it.hasNext()) {
+                    String line = it.next();
+                    if (!queue.offer(line)) {
+                        long start = System.nanoTime();
+                        queue.put(line);
+                        blocked += System.nanoTime() - start;
+                    }
+                    high = Math.max(high, queue.size());
+                }
+                exhausted.set(true);
+            } catch (InterruptedException _) {
+                return;
+            } catch (Exception e) {
+                // Reading fails once stop closed the source
+                if (!Thread.currentThread().isInterrupted()) Logger.logError("Error reading process output: " + e.getMessage(), e);
+            } finally {
+                Stats.record("lines.queue.high", high);
+                Stats.record("lines.blocked.ms", blocked / 1_000_000);
+            }
+            try {
+                queue.put(end);
+            } catch (InterruptedException _) { }
+        });
+
+        Iterator<String> queued = new Iterator<>() {
+            String next = null;
+            boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) return true;
+                if (done) return false;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException _) {
+                    Thread.currentThread().interrupt();
+                    next = end;
+                }
+                if (next == end) {
+                    next = null;
+                    done = true;
+                }
+                return !done;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String line = next;
+                next = null;
+                return line;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(queued, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(() -> {
+                if (exhausted.get()) return;
+                reader.interrupt();
+                stop.run();
+            });
+    }
+}
@@ -3,18 +3,25 @@ package lvp;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import lvp.sinks.server_sink.Server;
+import lvp.sinks.server_sink.OverflowPolicy;
+import lvp.sinks.server_sink.ServerOptions;
 import lvp.sinks.server_sink.ServerSink;
+import lvp.skills.Stats;
 import lvp.skills.logging.LogLevel;
 import lvp.skills.logging.Logger;
 import lvp.skills.parser.ConfigParser;
-import lvp.skills.parser.PathParser;
-import lvp.skills.parser.ConfigParser.Source;
+import lvp.skills.parser.IdMode;
+import lvp.skills.parser.IgnoreRules;
+import lvp.skills.parser.InstructionParser;
+import lvp.skills.parser.ConfigParser.SourceSpec;
 
 import java.net.URI;
 import java.net.http.HttpClient;
@@ -22,7 +29,7 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 
 public class Main {
-    private record Config(List<Source> sources, int port, LogLevel logLevel, Optional<String> watchFilter, boolean sourceOnly){}
+    private record Config(SourceRegistry sources, ServerOptions server, LogLevel logLevel, WatchOptions watch, int workers, Optional<Path> classCache, long classCacheSize, ProcessorOptions processor){}
 
     private static final Path LVP_SOURCES_PATH = Path.of("./sources.json");
     public static void main(String[] args) {
@@ -34,9 +41,13 @@ public class Main {
 
         Processor processor = null;
         try {
-            processor = new Processor();
-            processor.registerSink(new ServerSink(cfg.port()));
-            FileWatcher watcher = new FileWatcher(cfg.sources(), cfg.watchFilter(), cfg.sourceOnly(), processor);
+            processor = new Processor(cfg.processor());
+            Runtime.getRuntime().addShutdownHook(new Thread(processor::stop));
+            processor.registerSink(new ServerSink(cfg.server()));
+            Optional<WorkerPool> workers = cfg.workers() > 0 ? Optional.of(new WorkerPool(cfg.workers())) : Optional.empty();
+            workers.ifPresent(pool -> Runtime.getRuntime().addShutdownHook(new Thread(pool::stop)));
+            Optional<ClassCache> classCache = cfg.classCache().isPresent() ? Optional.of(new ClassCache(cfg.classCache().get(), cfg.classCacheSize())) : Optional.empty();
+            FileWatcher watcher = new FileWatcher(cfg.sources(), cfg.watch(), workers, classCache, processor);
             Runtime.getRuntime().addShutdownHook(new Thread(watcher::stop));
             watcher.start();
         } catch (IOException e) {
@@ -82,7 +93,8 @@ public class Main {
                     System.out.println("Log level set to: " + level);
                 }
             }
-            case "help" -> System.out.println("Available commands: /exit, /help, /log");
+            case "stats" -> System.out.println(Stats.report());
+            case "help" -> System.out.println("Available commands: /exit, /help, /log, /stats");
             default -> System.out.println("Unknown command: " + command);
         }
     }
@@ -92,8 +104,28 @@ public class Main {
         List<String> files = new ArrayList<>();
         Optional<String> cmd = Optional.empty();
         int port = Server.getDefaultPort();
+        long eventMemory = ServerOptions.DEFAULT_EVENT_MEMORY;
+        int clientQueue = ServerOptions.DEFAULT_CLIENT_QUEUE;
+        OverflowPolicy overflow = OverflowPolicy.RESYNC;
+        Duration heartbeat = ServerOptions.DEFAULT_HEARTBEAT;
+        Duration batchWindow = ServerOptions.DEFAULT_BATCH_WINDOW;
+        int batchBytes = ServerOptions.DEFAULT_BATCH_BYTES;
+        int httpThreads = 0;
+        int websocketPort = 0;
+        Duration debounce = WatchOptions.DEFAULT_DEBOUNCE;
+        List<String> ignore = new ArrayList<>(WatchOptions.DEFAULT_IGNORE);
+        int maxRuns = Runtime.getRuntime().availableProcessors();
+        int workers = 0;
+        Optional<Path> classCache = Optional.empty();
+        long classCacheSize = ClassCache.DEFAULT_SIZE;
+        int serviceWorkers = ServicePool.DEFAULT_SIZE;
+        int parallel = ProcessorOptions.DEFAULT_PARALLEL;
+        int lineQueue = ProcessorOptions.DEFAULT_LINE_QUEUE;
+        long serviceCache = ServiceCache.DEFAULT_SIZE;
+        IdMode idMode = IdMode.STABLE;
         LogLevel logLevel = LogLevel.Error;
-        Optional<List<Source>> sources = Optional.empty();
+        List<SourceSpec> configSpecs = List.of();
+        Optional<Path> config = Optional.empty();
         Optional<String> watchFilter = Optional.empty();
         boolean sourceOnly = false;
 
@@ -109,8 +141,94 @@ public class Main {
                         System.err.println("Error: Invalid port number. Not a number: " + value);
                     }
                 }
+                case "--event-memory" -> {
+                    try { eventMemory = Long.parseLong(value) * 1024 * 1024; } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid event memory. Not a number: " + value);
+                    }
+                }
+                case "--client-queue" -> {
+                    try { clientQueue = Integer.parseInt(value); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid client queue size. Not a number: " + value);
+                    }
+                }
+                case "--overflow" -> overflow = OverflowPolicy.fromString(value);
+                case "--heartbeat" -> {
+                    try {
+                        long seconds = Long.parseLong(value);
+                        if (seconds < 1) System.err.println("Error: Invalid heartbeat interval. Must be at least 1 second: " + value);
+                        else heartbeat = Duration.ofSeconds(seconds);
+                    } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid heartbeat interval. Not a number: " + value);
+                    }
+                }
+                case "--batch-window" -> {
+                    try { batchWindow = Duration.ofMillis(Long.parseLong(value)); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid batch window. Not a number: " + value);
+                    }
+                }
+                case "--batch-bytes" -> {
+                    try { batchBytes = Integer.parseInt(value); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid batch size. Not a number: " + value);
+                    }
+                }
+                case "--http-threads" -> {
+                    try { httpThreads = Integer.parseInt(value); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid number of HTTP threads. Not a number: " + value);
+                    }
+                }
+                case "--websocket" -> {
+                    try { websocketPort = value.isBlank() ? -1 : Integer.parseInt(value); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid WebSocket port. Not a number: " + value);
+                    }
+                }
+                case "--ignore", "-i" -> Arrays.stream(value.split(",")).map(String::strip).filter(p -> !p.isEmpty()).forEach(ignore::add);
+                case "--debounce" -> {
+                    try { debounce = Duration.ofMillis(Math.max(0, Long.parseLong(value))); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid debounce window. Not a number: " + value);
+                    }
+                }
+                case "--max-runs" -> {
+                    try { maxRuns = Math.max(1, Integer.parseInt(value)); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid number of runs. Not a number: " + value);
+                    }
+                }
+                case "--workers" -> {
+                    try { workers = Integer.parseInt(value); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid number of workers. Not a number: " + value);
+                    }
+                }
+                case "--class-cache" -> classCache = Optional.of(value.isBlank() ? ClassCache.DEFAULT_DIR : Path.of(value));
+                case "--class-cache-size" -> {
+                    try { classCacheSize = Long.parseLong(value) * 1024 * 1024; } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid class cache size. Not a number: " + value);
+                    }
+                }
+                case "--service-workers" -> {
+                    try { serviceWorkers = Math.max(1, Integer.parseInt(value)); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid number of service workers. Not a number: " + value);
+                    }
+                }
+                case "--parallel" -> {
+                    try { parallel = Math.max(1, Integer.parseInt(value)); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid window for parallel instructions. Not a number: " + value);
+                    }
+                }
+                case "--line-queue" -> {
+                    try { lineQueue = Math.max(0, Integer.parseInt(value)); } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid line queue size. Not a number: " + value);
+                    }
+                }
+                case "--service-cache" -> {
+                    try { serviceCache = Long.parseLong(value) * 1024 * 1024; } catch(NumberFormatException _) {
+                        System.err.println("Error: Invalid service cache size. Not a number: " + value);
+                    }
+                }
+                case "--ids" -> idMode = IdMode.fromString(value);
                 case "--cmd" -> cmd = value.isBlank() ? Optional.empty() : Optional.of(value);
-                case "--config", "-c" -> sources = loadWatchConfig();
+                case "--config", "-c" -> {
+                    configSpecs = loadWatchConfig().orElse(List.of());
+                    config = Optional.of(LVP_SOURCES_PATH.toAbsolutePath().normalize());
+                }
                 case "--watch-filter", "-w" -> watchFilter = value.isBlank() ? Optional.empty() : Optional.of(value);
                 case "--source-only", "-s" -> sourceOnly = true;
                 default -> {
@@ -120,38 +238,26 @@ public class Main {
         }
 
         Logger.setLogLevel(logLevel);
+        InstructionParser.setIdMode(idMode);
 
         if (port < 1 || port > 65535) {
             System.err.println("Error: Invalid port number. Must be between 1 and 65535.");
             System.exit(1);
         }
+        if (websocketPort < 0) websocketPort = port + 1;
         Logger.logDebug(files.isEmpty() ? "No files provided." : "Files to execute: " + files);
-        Optional<List<Path>> paths = getFilePaths(files);
+        String c = cmd.orElse(WorkerPool.DEFAULT_CMD);
+        SourceRegistry sources = new SourceRegistry(configSpecs, files.stream().map(file -> new SourceSpec(file, c)).toList(), IgnoreRules.of(ignore));
 
-        if (paths.isEmpty() && sources.isEmpty()) {
+        if (sources.isEmpty()) {
             System.err.println("Error: No valid files to execute.");
             System.exit(1);
         }
 
-        if (!paths.isEmpty()) {
-            sources = Optional.of(sources.orElseGet(ArrayList::new));
-            String c = cmd.orElse("java -Dsun.stdout.encoding=UTF-8 --enable-preview");
-            List<Source> sourcesFromPaths = paths.get().stream().map(path -> new Source(path, c)).toList();
-            sources.ifPresent(lst -> lst.addAll(sourcesFromPaths));
-        }
-
-        return new Config(sources.get(), port, logLevel, watchFilter, sourceOnly);
-    }
-
-    private static Optional<List<Path>> getFilePaths(List<String> files) {
-        List<Path> paths = new ArrayList<>();
-        for (String file : files) {
-            PathParser.parse(file).ifPresent(paths::addAll);
-        }
-        return paths.isEmpty() ? Optional.empty() : Optional.of(paths);
+        return new Config(sources, new ServerOptions(port, eventMemory, clientQueue, overflow, heartbeat, batchWindow, batchBytes, httpThreads, websocketPort), logLevel, new WatchOptions(watchFilter, sourceOnly, debounce, ignore, maxRuns, config), workers, classCache, classCacheSize, new ProcessorOptions(serviceWorkers, parallel, lineQueue, serviceCache));
     }
 
-    private static Optional<List<Source>> loadWatchConfig() {
+    private static Optional<List<SourceSpec>> loadWatchConfig() {
         if (!Files.isRegularFile(LVP_SOURCES_PATH) || !Files.exists(LVP_SOURCES_PATH)) {
             Logger.logError("Config not found at: " + LVP_SOURCES_PATH.normalize().toAbsolutePath());
             return Optional.empty();
@@ -6,19 +6,33 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Gatherers;
+import java.util.stream.Stream;
 
 import lvp.services.*;
 import lvp.sinks.Sink;
+import lvp.skills.Dependencies;
+import lvp.skills.ParsingTools;
 import lvp.skills.Scan;
+import lvp.skills.Stats;
 import lvp.skills.TriConsumer;
 import lvp.skills.logging.Logger;
 import lvp.skills.parser.InstructionParser;
@@ -27,7 +41,8 @@ public class Processor {
     public record MetaInformation(String sourceId, String id, boolean standalone) {}
     
     Map<String, BiConsumer<MetaInformation, String>> channel = new HashMap<>();
-    Map<String, BiFunction<MetaInformation, String, String>> services = new HashMap<>(Map.of(
+    // Register adds services while runs of other sources, and concurrent instructions, look them up
+    Map<String, BiFunction<MetaInformation, String, String>> services = new ConcurrentHashMap<>(Map.of(
             "Text", Text::of, 
             "Codeblock", Text::codeblock,
             "Cutout", Text::cutout,
@@ -37,12 +52,56 @@ public class Processor {
         "CommandScan", this::consumeCommandScan
     ));
     List<Sink> sinks = new ArrayList<>();
+    Map<String, ServicePool> servicePools = new ConcurrentHashMap<>();
+    ProcessorOptions options;
+    ServiceCache serviceCache;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
 
-    void process(Process process, String sourceId) {
-        try(BufferedReader reader = new BufferedReader(
-            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-            
-            InstructionParser.parse(reader.lines()).gather(Gatherers.fold(() -> "", (prev, curr) ->
+    // Text remembers the content of an id for later fill-outs, so its result depends on the
+    // instructions before it and it runs in order. Turtle renders each program on its own,
+    // Codeblock and Cutout only read files, and Test starts a JShell per call. A registered
+    // service gets a new process per call, or any idle worker of its pool, so it cannot count
+    // on the order of its calls either. A service that does needs --parallel=1.
+    private static final Set<String> ORDERED_SERVICES = Set.of("Text");
+
+    // One instruction with the part that may run concurrently and the part that runs in order
+    private record Step(CompletableFuture<String> computed, Function<String, String> emit, CompletableFuture<String> result) {
+        static final Step END = new Step(null, null, null);
+
+        static Step of(CompletableFuture<String> computed, Function<String, String> emit) {
+            return new Step(computed, emit, new CompletableFuture<>());
+        }
+    }
+
+    Processor() { this(ProcessorOptions.DEFAULT); }
+
+    Processor(ProcessorOptions options) {
+        this.options = options;
+        this.serviceCache = new ServiceCache(options.serviceCache());
+        serviceCache.pure("Turtle");
+        serviceCache.idDependent("Turtle");
+        serviceCache.fileDependent("Codeblock", Processor::firstPart);
+        serviceCache.fileDependent("Cutout", Processor::firstPart);
+    }
+
+    // The file Codeblock and Cutout read from
+    private static List<Path> firstPart(String content) {
+        return ParsingTools.tryPath(content.split(";")[0].strip()).stream().toList();
+    }
+
+    // The service with its cached results, if it is declared cacheable
+    private BiFunction<MetaInformation, String, String> service(String name) {
+        return serviceCache.wrap(name, services.get(name));
+    }
+
+    // The lines are the output of the process, the process receives the input of scans
+    void process(Process process, Stream<String> lines, String sourceId) {
+        if (options.parallel() > 1) {
+            processConcurrently(process, lines, sourceId);
+            return;
+        }
+        try {
+            InstructionParser.parse(lines, sourceId).gather(Gatherers.fold(() -> "", (prev, curr) ->
                     switch (curr) {
                         case Command cmd -> processCommands(cmd, sourceId, process);
                         case Pipe pipe -> processPipe(pipe, prev, sourceId, process);
@@ -56,6 +115,113 @@ public class Processor {
         }
     }
 
+    // Services that do not depend on the order run concurrently, up to the window size. Everything
+    // that reaches the sinks or the process, and pipes waiting for the previous result, runs on one
+    // thread in the order of the output, so the view looks the same as with sequential processing.
+    private void processConcurrently(Process process, Stream<String> lines, String sourceId) {
+        BlockingQueue<Step> window = new ArrayBlockingQueue<>(options.parallel());
+        Thread emitter = Thread.ofVirtual().start(() -> emit(window));
+        try {
+            CompletableFuture<String> prev = CompletableFuture.completedFuture("");
+            Iterator<Instruction> instructions = InstructionParser.parse(lines, sourceId).iterator();
+            while (instructions.hasNext()) {
+                Step step = plan(instructions.next(), prev, sourceId, process);
+                window.put(step);
+                prev = step.result();
+            }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+            emitter.interrupt();
+        } catch (Exception e) {
+            Logger.logError("Error reading process output: " + e.getMessage(), e);
+        }
+        try {
+            if (!Thread.currentThread().isInterrupted()) window.put(Step.END);
+            emitter.join();
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+            emitter.interrupt();
+        }
+    }
+
+    // Services are resolved here on the reading thread, in the order of the output, so a call sees
+    // the services registered before it and none registered after it, wherever and whenever it runs
+    private Step plan(Instruction instruction, CompletableFuture<String> prev, String sourceId, Process process) {
+        return switch (instruction) {
+            case Command cmd when runsConcurrently(cmd.name()) -> {
+                BiFunction<MetaInformation, String, String> service = service(cmd.name());
+                MetaInformation meta = new MetaInformation(sourceId, cmd.id(), true);
+                Stats.increment("processor.concurrent");
+                yield Step.of(CompletableFuture.supplyAsync(() -> service.apply(meta, cmd.content()), executor), result -> result);
+            }
+            case Command cmd -> {
+                BiFunction<MetaInformation, String, String> command = resolve(cmd.name(), process);
+                MetaInformation meta = new MetaInformation(sourceId, cmd.id(), true);
+                yield Step.of(CompletableFuture.completedFuture(null), _ -> {
+                    Logger.logDebug("Command: " + cmd.name() + "{" + cmd.id() + "}, " + cmd.content());
+                    return command.apply(meta, cmd.content());
+                });
+            }
+            case Pipe pipe -> planPipe(pipe, prev, sourceId, process);
+            case Register register -> {
+                // Right away, the following instructions look up the service
+                processRegister(register);
+                yield Step.of(CompletableFuture.completedFuture(null), _ -> null);
+            }
+            case Unknown unknown -> Step.of(CompletableFuture.completedFuture(null), _ -> processUnknown(unknown, sourceId));
+        };
+    }
+
+    // The leading services of the pipe run concurrently once the previous result is there, the rest in order
+    private Step planPipe(Pipe pipe, CompletableFuture<String> prev, String sourceId, Process process) {
+        List<CommandRef> refs = pipe.commands();
+        int split = 0;
+        while (split < refs.size() && runsConcurrently(refs.get(split).name())) split++;
+        List<CommandRef> head = refs.subList(0, split);
+        List<BiFunction<MetaInformation, String, String>> stages = head.stream().map(ref -> service(ref.name())).toList();
+        List<CommandRef> tail = refs.subList(split, refs.size());
+        List<BiFunction<MetaInformation, String, String>> rest = tail.stream().map(ref -> resolve(ref.name(), process)).toList();
+        Function<String, String> emit = input -> {
+            String current = input;
+            for (int i = 0; i < rest.size() && current != null; i++) {
+                Logger.logDebug("Command: " + tail.get(i).name() + "{" + tail.get(i).id() + "}, " + current);
+                current = rest.get(i).apply(new MetaInformation(sourceId, tail.get(i).id(), false), current);
+            }
+            return current;
+        };
+        if (stages.isEmpty()) return Step.of(prev, emit);
+
+        Stats.increment("processor.concurrent");
+        CompletableFuture<String> computed = prev.thenApplyAsync(input -> {
+            String current = input;
+            for (int i = 0; i < stages.size() && current != null; i++) {
+                current = stages.get(i).apply(new MetaInformation(sourceId, head.get(i).id(), false), current);
+            }
+            return current;
+        }, executor);
+        return Step.of(computed, emit);
+    }
+
+    private boolean runsConcurrently(String name) {
+        return !channel.containsKey(name) && services.containsKey(name) && !ORDERED_SERVICES.contains(name);
+    }
+
+    private void emit(BlockingQueue<Step> window) {
+        try {
+            for (Step step = window.take(); step != Step.END; step = window.take()) {
+                String result = null;
+                try {
+                    result = step.emit().apply(step.computed().join());
+                } catch (Exception e) {
+                    Logger.logError("Error processing output: " + e.getMessage(), e);
+                }
+                step.result().complete(result);
+            }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     String processCommands(Command command, String sourceId, Process process) {
         Logger.logDebug("Command: " + command.name() + "{" + command.id() + "}, " + command.content());
         MetaInformation meta = new MetaInformation(sourceId, command.id(), true);
@@ -76,22 +242,27 @@ public class Processor {
     }
 
     String executeCommand(String name, String content, MetaInformation meta, Process process) {
+        return resolve(name, process).apply(meta, content);
+    }
+
+    // The channel, service or scan the name stands for at this point of the output
+    private BiFunction<MetaInformation, String, String> resolve(String name, Process process) {
         if (channel.containsKey(name)) {
-            channel.get(name).accept(meta, content);
-            return null;
+            BiConsumer<MetaInformation, String> target = channel.get(name);
+            return (meta, content) -> { target.accept(meta, content); return null; };
         }
         else if (services.containsKey(name)) {
-            return services.get(name).apply(meta, content);
+            return service(name);
         }
         else if (scans.containsKey(name))  {
-            scans.get(name).accept(meta, process, content);
-            return null;
+            TriConsumer<MetaInformation, Process, String> scan = scans.get(name);
+            return (meta, content) -> { scan.accept(meta, process, content); return null; };
         }
-        else {
+        return (meta, content) -> {
             Logger.logError("Command not found: " + name);
             sinks.forEach(s -> s.error(meta, name + content));
-        }
-        return null;
+            return null;
+        };
     }
 
     String consumeCommandScan(MetaInformation meta, Process process, String prev) {
@@ -108,6 +279,21 @@ public class Processor {
     }
 
     String processRegister(Register register) {
+        serviceCache.forget(register.name());
+        if (register.persistent()) {
+            // The workers survive reruns, unless the service is registered with another call
+            ServicePool pool = servicePools.compute(register.name(), (name, existing) -> {
+                if (existing != null && existing.call().equals(register.call())) return existing;
+                if (existing != null) existing.stop();
+                return new ServicePool(name, register.call(), options.serviceWorkers());
+            });
+            services.put(register.name(), (meta, content) ->
+                pool.request((register.skipId() ? "" : meta.id() + "\n") + content + "\n"));
+            return null;
+        }
+        ServicePool replaced = servicePools.remove(register.name());
+        if (replaced != null) replaced.stop();
+
         services.put(register.name(), (meta, content) -> {
             boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
             String out = null;
@@ -148,6 +334,26 @@ public class Processor {
     void init(String sourceId) {
         sinks.forEach(s -> s.clear(sourceId));
         Text.clear(sourceId);
+        Dependencies.clear(sourceId);
+    }
+
+    void finish(String sourceId) {
+        sinks.forEach(s -> s.finish(sourceId));
+    }
+
+    void abort(String sourceId) {
+        sinks.forEach(s -> s.abort(sourceId));
+    }
+
+    void remove(String sourceId) {
+        sinks.forEach(s -> s.remove(sourceId));
+        Text.clear(sourceId);
+        Dependencies.clear(sourceId);
+    }
+
+    void stop() {
+        servicePools.values().forEach(ServicePool::stop);
+        executor.shutdownNow();
     }
 
     void registerSink(Sink sink) {
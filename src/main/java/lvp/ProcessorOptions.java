@@ -0,0 +1,7 @@
+package lvp;
+
+public record ProcessorOptions(int serviceWorkers, int parallel, int lineQueue, long serviceCache) {
+    public static final int DEFAULT_PARALLEL = 1;
+    public static final int DEFAULT_LINE_QUEUE = 4096;
+    public static final ProcessorOptions DEFAULT = new ProcessorOptions(ServicePool.DEFAULT_SIZE, DEFAULT_PARALLEL, DEFAULT_LINE_QUEUE, ServiceCache.DEFAULT_SIZE);
+}
@@ -0,0 +1,169 @@
+package lvp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+import lvp.skills.Stats;
+import lvp.skills.logging.Logger;
+import lvp.skills.parser.ConfigParser.Source;
+
+// Runs each source at most once at a time. A change during a run cancels it: its process
+// is killed and the rest of its output is dropped. The source runs again as soon as the
+// cancelled run has stopped; further changes in the meantime are coalesced into this one
+// pending run, so the latest edit wins.
+//
+// At most maxRuns sources run at the same time, the others wait in a queue. Sources with a
+// higher priority from sources.json go first, then the most recently edited ones.
+class RunScheduler {
+    // One run of a source, cancelled when a newer change arrives
+    static class Job {
+        private volatile boolean cancelled = false;
+        private Process process = null;
+
+        boolean cancelled() { return cancelled; }
+
+        // The process is killed on cancellation, also if it was cancelled before the process started
+        synchronized void attach(Process process) {
+            this.process = process;
+            if (cancelled) kill(process);
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (process != null) kill(process);
+        }
+
+        // The shell started by the default runner does not pass the kill on to java. Killing by handle
+        // keeps the streams open, so the reader sees the end of the output instead of an exception.
+        static void kill(Process process) {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.toHandle().destroyForcibly();
+        }
+    }
+
+    private record Queued(Slot slot, Source source, long lastEdit, long queuedAt) {
+        static final Comparator<Queued> ORDER = Comparator.comparingInt((Queued q) -> q.source().priority()).reversed()
+            .thenComparing(Comparator.comparingLong(Queued::lastEdit).reversed());
+    }
+
+    private static class Slot {
+        Queued queued = null;
+        Job active = null;
+        Source pending = null;
+    }
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Slot> slots = new HashMap<>();
+    private final PriorityQueue<Queued> queue = new PriorityQueue<>(Queued.ORDER);
+    private final BiConsumer<Source, Job> task;
+    private final int maxRuns;
+    private int running = 0;
+
+    RunScheduler(int maxRuns, BiConsumer<Source, Job> task) {
+        this.maxRuns = maxRuns;
+        this.task = task;
+        Stats.gauge("runs.active", () -> { synchronized (slots) { return running; } });
+        Stats.gauge("runs.queued", () -> { synchronized (slots) { return queue.size(); } });
+    }
+
+    void submit(Source source) {
+        synchronized (slots) {
+            Slot slot = slots.computeIfAbsent(source.id(), _ -> new Slot());
+            if (slot.queued != null) {
+                // Not started yet, it reads the latest version anyway
+                queue.remove(slot.queued);
+                enqueue(slot, source, slot.queued.queuedAt());
+                Stats.increment("runs.coalesced");
+            } else if (slot.active == null) {
+                enqueue(slot, source, System.nanoTime());
+            } else {
+                if (slot.pending == null) {
+                    Logger.logInfo("Cancelling running " + source.path());
+                    slot.active.cancel();
+                    Stats.increment("runs.cancelled");
+                } else {
+                    Stats.increment("runs.coalesced");
+                }
+                slot.pending = source;
+            }
+            dispatch();
+        }
+    }
+
+    // The source is gone: a waiting run is dropped, a running one cancelled
+    void remove(String sourceId) {
+        synchronized (slots) {
+            Slot slot = slots.remove(sourceId);
+            if (slot == null) return;
+            if (slot.queued != null) queue.remove(slot.queued);
+            slot.queued = null;
+            slot.pending = null;
+            if (slot.active != null) slot.active.cancel();
+        }
+    }
+
+    void stop() {
+        synchronized (slots) {
+            queue.clear();
+            slots.values().forEach(slot -> {
+                slot.queued = null;
+                slot.pending = null;
+                if (slot.active != null) slot.active.cancel();
+            });
+        }
+        executor.shutdownNow();
+    }
+
+    private void enqueue(Slot slot, Source source, long queuedAt) {
+        long lastEdit;
+        try {
+            lastEdit = Files.getLastModifiedTime(source.path()).toMillis();
+        } catch (IOException _) {
+            lastEdit = 0;
+        }
+        slot.queued = new Queued(slot, source, lastEdit, queuedAt);
+        queue.add(slot.queued);
+    }
+
+    private void dispatch() {
+        while (running < maxRuns && !queue.isEmpty() && !executor.isShutdown()) {
+            Queued next = queue.poll();
+            Slot slot = next.slot();
+            slot.queued = null;
+            slot.active = new Job();
+            running++;
+
+            long waited = (System.nanoTime() - next.queuedAt()) / 1_000_000;
+            Stats.record("runs.queue.wait.ms", waited);
+            Logger.logInfo("Starting " + next.source().path() + " after " + waited + " ms in queue");
+
+            Job job = slot.active;
+            executor.submit(() -> {
+                try {
+                    task.accept(next.source(), job);
+                } finally {
+                    finished(slot);
+                }
+            });
+        }
+    }
+
+    private void finished(Slot slot) {
+        synchronized (slots) {
+            running--;
+            slot.active = null;
+            if (slot.pending != null) {
+                enqueue(slot, slot.pending, System.nanoTime());
+                slot.pending = null;
+            }
+            dispatch();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package lvp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import lvp.Processor.MetaInformation;
+import lvp.skills.Dependencies;
+import lvp.skills.Stats;
+
+// Results of services that only depend on their input and the files they read, so a rerun does
+// not render the same Turtle program or read the same code excerpt again. A result is keyed by
+// service and content, and by path and content of the files. The id is not part of the key, so
+// results are found again with random ids: a service that writes the id into its result renders
+// with a placeholder, which is replaced on every lookup. The least recently used results are
+// evicted above the size limit.
+class ServiceCache {
+    static final long DEFAULT_SIZE = 32L * 1024 * 1024;
+
+    // The files a service reads for a content, none for pure services
+    private final Map<String, Function<String, List<Path>>> declared = new ConcurrentHashMap<>();
+    private final Set<String> withId = ConcurrentHashMap.newKeySet();
+    private final String placeholder = "lvp" + HexFormat.of().toHexDigits(new SecureRandom().nextLong());
+    private final LinkedHashMap<String, String> results = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes = 0;
+
+    ServiceCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        Stats.gauge("servicecache.bytes", () -> { synchronized (results) { return bytes; } });
+    }
+
+    void pure(String name) { declared.put(name, _ -> List.of()); }
+
+    void fileDependent(String name, Function<String, List<Path>> files) { declared.put(name, files); }
+
+    // The result contains the id, e.g. in the ids of its elements
+    void idDependent(String name) { withId.add(name); }
+
+    // A service registered under the name of a declared one is no longer known to be cacheable
+    void forget(String name) {
+        withId.remove(name);
+        if (declared.remove(name) == null) return;
+        synchronized (results) {
+            Iterator<Map.Entry<String, String>> it = results.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, String> entry = it.next();
+                if (entry.getKey().startsWith(name + "\0")) {
+                    bytes -= sizeOf(entry);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    BiFunction<MetaInformation, String, String> wrap(String name, BiFunction<MetaInformation, String, String> service) {
+        Function<String, List<Path>> files = declared.get(name);
+        if (files == null || maxBytes <= 0) return service;
+        boolean usesId = withId.contains(name);
+        return (meta, content) -> {
+            List<Path> read = files.apply(content);
+            Optional<String> key = key(name, content, read);
+            if (key.isEmpty()) return service.apply(meta, content);
+
+            String cached;
+            synchronized (results) { cached = results.get(key.get()); }
+            if (cached != null) {
+                Stats.increment("servicecache." + name + ".hit");
+                // The service would have recorded them
+                read.forEach(file -> Dependencies.record(meta.sourceId(), file));
+                return usesId ? cached.replace(placeholder, meta.id()) : cached;
+            }
+            Stats.increment("servicecache." + name + ".miss");
+            if (!usesId) {
+                String result = service.apply(meta, content);
+                if (result != null) put(key.get(), result);
+                return result;
+            }
+            String result = service.apply(new MetaInformation(meta.sourceId(), placeholder, meta.standalone()), content);
+            if (result == null) return null;
+            put(key.get(), result);
+            return result.replace(placeholder, meta.id());
+        };
+    }
+
+    private void put(String key, String result) {
+        synchronized (results) {
+            String replaced = results.put(key, result);
+            if (replaced != null) bytes -= sizeOf(Map.entry(key, replaced));
+            bytes += sizeOf(Map.entry(key, result));
+            Iterator<Map.Entry<String, String>> it = results.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= sizeOf(it.next());
+                it.remove();
+                Stats.increment("servicecache.evicted");
+            }
+        }
+    }
+
+    // Empty if a file cannot be read, the service reports that itself. The files are hashed by
+    // content, so an edit that keeps the size and modification time is not missed.
+    private static Optional<String> key(String name, String content, List<Path> files) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+            for (Path file : files) {
+                byte[] bytes = Files.readAllBytes(file);
+                digest.update((file.toAbsolutePath().normalize() + "\0" + bytes.length + "\0").getBytes(StandardCharsets.UTF_8));
+                digest.update(bytes);
+            }
+            return Optional.of(name + "\0" + HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException | NoSuchAlgorithmException _) {
+            return Optional.empty();
+        }
+    }
+
+    private static long sizeOf(Map.Entry<String, String> entry) {
+        return 2L * (entry.getKey().length() + entry.getValue().length());
+    }
+}
@@ -0,0 +1,197 @@
+package lvp;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lvp.skills.Stats;
+import lvp.skills.logging.Logger;
+
+// Long-lived processes of a service registered with `Register[persistent]`, so a call does not
+// start a new process. Requests and responses are framed by their length in bytes:
+//   <length>\n<bytes>
+// The request holds the same as stdin of a single call, the id line (unless skipId) and the
+// content. A worker that crashed or timed out is replaced, one idle for too long is stopped.
+class ServicePool {
+    static final int DEFAULT_SIZE = 2;
+    static final Duration IDLE_TIMEOUT = Duration.ofSeconds(60);
+    static final Duration CALL_TIMEOUT = Duration.ofSeconds(10);
+
+    private static class Worker {
+        final Process process;
+        long lastUsed = System.nanoTime();
+
+        Worker(Process process) { this.process = process; }
+    }
+
+    private final String name;
+    private final String call;
+    private final int size;
+    private final LinkedBlockingDeque<Worker> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger started = new AtomicInteger();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean running = true;
+
+    ServicePool(String name, String call, int size) {
+        this.name = name;
+        this.call = call;
+        this.size = Math.max(1, size);
+        Thread.ofVirtual().start(this::evictIdle);
+    }
+
+    String call() { return call; }
+
+    // Null on failure, like a single call without output. A crashed worker is restarted once.
+    String request(String payload) {
+        long start = System.nanoTime();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Optional<Worker> worker = acquire();
+            if (worker.isEmpty()) return null;
+            Future<String> response = executor.submit(() -> exchange(worker.get(), payload));
+            try {
+                String result = response.get(CALL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                release(worker.get());
+                Stats.record("services." + name + ".ms", (System.nanoTime() - start) / 1_000_000);
+                return result;
+            } catch (TimeoutException _) {
+                discard(worker.get());
+                Logger.logError("Timeout: worker of " + name + " killed");
+                return null;
+            } catch (ExecutionException e) {
+                discard(worker.get());
+                Stats.increment("services." + name + ".restarts");
+                Logger.logError("Worker of " + name + " failed: " + e.getCause().getMessage());
+            } catch (InterruptedException _) {
+                discard(worker.get());
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    void stop() {
+        running = false;
+        Worker worker;
+        while ((worker = idle.poll()) != null) worker.process.destroyForcibly();
+        executor.shutdownNow();
+    }
+
+    // The most recently used worker first, so the others become idle long enough to be stopped
+    private Optional<Worker> acquire() {
+        try {
+            while (running) {
+                Worker worker = idle.pollFirst();
+                if (worker == null) {
+                    if (started.incrementAndGet() <= size) {
+                        Optional<Worker> fresh = start();
+                        if (fresh.isEmpty()) started.decrementAndGet();
+                        return fresh;
+                    }
+                    started.decrementAndGet();
+                    worker = idle.pollFirst(CALL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                    if (worker == null) {
+                        Logger.logError("No worker of " + name + " available");
+                        return Optional.empty();
+                    }
+                }
+                if (worker.process.isAlive()) return Optional.of(worker);
+                discard(worker);
+            }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+        return Optional.empty();
+    }
+
+    private void release(Worker worker) {
+        worker.lastUsed = System.nanoTime();
+        if (running) idle.offerFirst(worker);
+        else discard(worker);
+    }
+
+    private void discard(Worker worker) {
+        worker.process.destroyForcibly();
+        started.decrementAndGet();
+    }
+
+    private Optional<Worker> start() {
+        boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
+        try {
+            Logger.logInfo("Starting worker of " + name + ": " + call);
+            Process process = new ProcessBuilder(isWindows ? new String[]{"cmd.exe", "/c", call} : new String[]{"sh", "-c", call}).start();
+            // stderr is not part of the protocol
+            Thread.ofVirtual().start(() -> {
+                try (BufferedReader errors = process.errorReader(StandardCharsets.UTF_8)) {
+                    errors.lines().forEach(line -> Logger.logError(name + ": " + line));
+                } catch (IOException _) { }
+            });
+            Stats.increment("services." + name + ".started");
+            return Optional.of(new Worker(process));
+        } catch (IOException e) {
+            Logger.logError("Could not start worker of " + name, e);
+            return Optional.empty();
+        }
+    }
+
+    private static String exchange(Worker worker, String payload) throws IOException {
+        byte[] request = payload.getBytes(StandardCharsets.UTF_8);
+        OutputStream out = worker.process.getOutputStream();
+        out.write((request.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(request);
+        out.flush();
+
+        InputStream in = worker.process.getInputStream();
+        String header = readLine(in).strip();
+        int length;
+        try {
+            length = Integer.parseInt(header);
+        } catch (NumberFormatException _) {
+            throw new IOException("Expected length of response, got '" + header + "'");
+        }
+        byte[] response = in.readNBytes(length);
+        if (response.length < length) throw new IOException("Worker exited");
+        String result = new String(response, StandardCharsets.UTF_8);
+        return result.endsWith("\n") ? result.substring(0, result.length() - 1) : result;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) != '\n'; ) {
+            if (b == -1) throw new IOException("Worker exited");
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private void evictIdle() {
+        while (running) {
+            try {
+                Thread.sleep(IDLE_TIMEOUT.dividedBy(2));
+            } catch (InterruptedException _) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Worker worker : idle) {
+                if (now - worker.lastUsed > IDLE_TIMEOUT.toNanos() && idle.remove(worker)) {
+                    discard(worker);
+                    Stats.increment("services." + name + ".evicted");
+                    Logger.logInfo("Stopped idle worker of " + name);
+                }
+            }
+        }
+    }
+}
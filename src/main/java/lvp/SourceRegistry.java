@@ -0,0 +1,115 @@
+package lvp;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lvp.skills.logging.Logger;
+import lvp.skills.parser.IgnoreRules;
+import lvp.skills.parser.PathParser;
+import lvp.skills.parser.ConfigParser.Source;
+import lvp.skills.parser.ConfigParser.SourceSpec;
+
+// The sources by their normalized absolute path. Globs stay live: a new file matching one
+// becomes a source, a deleted source is removed. A file matched by several specs belongs to
+// the first one. The specs of sources.json come first and can be reloaded while running.
+class SourceRegistry {
+    // Result of a reload, changed are the sources that run with a different command now
+    record Reload(List<Source> added, List<Source> removed, List<Source> changed) {}
+
+    private final List<SourceSpec> commandLine;
+    private final IgnoreRules ignore;
+    private volatile List<SourceSpec> specs;
+    private final Map<Path, Source> sources = new ConcurrentHashMap<>();
+
+    SourceRegistry(List<SourceSpec> config, List<SourceSpec> commandLine, IgnoreRules ignore) {
+        this.commandLine = List.copyOf(commandLine);
+        this.ignore = ignore;
+        this.specs = concat(config, commandLine);
+        long start = System.nanoTime();
+        sources.putAll(expand(specs));
+        Logger.logInfo("Found " + sources.size() + " sources (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+    }
+
+    // Applies a new sources.json, sources it does not touch keep running as they are
+    Reload reload(List<SourceSpec> config) {
+        List<SourceSpec> updated = concat(config, commandLine);
+        Map<Path, Source> expanded = expand(updated);
+        List<Source> added = new ArrayList<>(), removed = new ArrayList<>(), changed = new ArrayList<>();
+        for (Source source : List.copyOf(sources.values())) {
+            if (!expanded.containsKey(source.path())) {
+                sources.remove(source.path());
+                removed.add(source);
+            }
+        }
+        expanded.forEach((path, source) -> {
+            Source previous = sources.put(path, source);
+            if (previous == null) added.add(source);
+            else if (!previous.cmd().equals(source.cmd())) changed.add(source);
+        });
+        specs = updated;
+        Logger.logInfo("Reloaded sources: " + added.size() + " added, " + removed.size() + " removed, " + changed.size() + " changed");
+        return new Reload(added, removed, changed);
+    }
+
+    Optional<Source> get(Path path) {
+        return Optional.ofNullable(sources.get(normalize(path)));
+    }
+
+    Collection<Source> all() {
+        return sources.values();
+    }
+
+    boolean isEmpty() {
+        return sources.isEmpty();
+    }
+
+    // Registers the file if it is new and matches a spec
+    Optional<Source> discover(Path file) {
+        Path path = normalize(file);
+        if (sources.containsKey(path) || !Files.isRegularFile(path)) return Optional.empty();
+        Optional<SourceSpec> spec = specs.stream().filter(s -> s.matches(path)).findFirst();
+        if (spec.isEmpty()) return Optional.empty();
+
+        Source source = spec.get().toSource(path);
+        Source previous = sources.putIfAbsent(path, source);
+        if (previous != null) return Optional.empty();
+        Logger.logInfo("New source: " + path);
+        return Optional.of(source);
+    }
+
+    Optional<Source> remove(Path file) {
+        Optional<Source> removed = Optional.ofNullable(sources.remove(normalize(file)));
+        removed.ifPresent(source -> Logger.logInfo("Source removed: " + source.path()));
+        return removed;
+    }
+
+    // Specs are expanded in parallel, the results are added in the order of the specs
+    private Map<Path, Source> expand(List<SourceSpec> specs) {
+        List<List<Path>> expanded = specs.parallelStream()
+            .map(spec -> PathParser.parse(spec.path(), ignore).orElse(List.of()))
+            .toList();
+        Map<Path, Source> result = new LinkedHashMap<>();
+        for (int i = 0; i < expanded.size(); i++) {
+            SourceSpec spec = specs.get(i);
+            expanded.get(i).forEach(path -> result.putIfAbsent(normalize(path), spec.toSource(path)));
+        }
+        return result;
+    }
+
+    private static List<SourceSpec> concat(List<SourceSpec> first, List<SourceSpec> second) {
+        List<SourceSpec> all = new ArrayList<>(first);
+        all.addAll(second);
+        return List.copyOf(all);
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,12 @@
+package lvp;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+// The config is sources.json, if loaded with --config, which is reloaded when it changes
+public record WatchOptions(Optional<String> watchFilter, boolean sourceOnly, Duration debounce, List<String> ignore, int maxRuns, Optional<Path> config) {
+    public static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(500);
+    public static final List<String> DEFAULT_IGNORE = List.of(".git/");
+}
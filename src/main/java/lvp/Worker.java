@@ -0,0 +1,283 @@
+package lvp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+
+// Warm JVM of the WorkerPool. Reads one command per line from stdin, tab separated:
+// "<marker> <path>", or "<marker> <path> <classes> <main class>" for a source already
+// compiled by the ClassCache. Otherwise the source is compiled in memory. Its main method
+// runs in a fresh class loader, as the source launcher of `java <file>` would do. The
+// output ends with a line holding the marker and a status; "recycle" asks the pool for a
+// fresh worker, e.g. because threads of the program are still running. Scan input for the
+// program arrives on stdin as well, commands are only read between runs.
+public class Worker {
+    static final String READY = "lvp-worker-ready";
+    static final String RECYCLE = "recycle";
+    private static final long THREAD_TIMEOUT_MS = 10_000;
+
+    public static void main(String[] args) throws IOException {
+        // Both streams write to stdout, so the end marker can start on a line of its own
+        LastByte stdout = new LastByte(new FileOutputStream(FileDescriptor.out));
+        PrintStream out = new PrintStream(stdout, true, StandardCharsets.UTF_8);
+        System.setOut(out);
+        System.setErr(out);
+
+        run(compile(Path.of("Warmup.java"), "void main() {}"), false); // loads and warms up the compiler
+        out.println(READY);
+        out.flush();
+
+        String command;
+        while ((command = readLine(System.in)) != null) {
+            String[] parts = command.split("\t");
+            if (parts.length < 2) continue;
+            String status = run(parts.length == 4 ? load(Path.of(parts[2]), parts[3]) : compile(Path.of(parts[1]), null), true);
+            out.flush();
+            out.print((stdout.last == '\n' ? "" : System.lineSeparator()) + parts[0] + " " + status + System.lineSeparator());
+            out.flush();
+        }
+    }
+
+    private record Program(String mainClass, ClassLoader loader) {}
+
+    // Same options as the ClassCache, so classes of both are interchangeable
+    static List<String> options(Path path) {
+        return List.of("--enable-preview", "--release", Integer.toString(Runtime.version().feature()),
+            "-proc:none", "-Xlint:none", "-implicit:class",
+            "-sourcepath", Optional.ofNullable(path.toAbsolutePath().getParent()).map(Path::toString).orElse("."));
+    }
+
+    private static Optional<Program> load(Path classes, String mainClass) {
+        try {
+            return Optional.of(new Program(mainClass, new URLClassLoader("lvp-run", new URL[]{ classes.toUri().toURL() }, ClassLoader.getPlatformClassLoader())));
+        } catch (MalformedURLException e) {
+            System.err.println("error: " + e);
+            return Optional.empty();
+        }
+    }
+
+    // Compile errors are reported like the source launcher does
+    private static Optional<Program> compile(Path path, String content) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            MemoryFileManager files = new MemoryFileManager(standard);
+            Iterable<? extends JavaFileObject> units = content == null
+                ? standard.getJavaFileObjects(path)
+                : List.of(new SourceObject(path, content));
+            JavacTask task = (JavacTask) compiler.getTask(null, files, diagnostics, options(path), null, units);
+            String mainClass = mainClass(task.parse(), path);
+            task.generate();
+
+            List<Diagnostic<? extends JavaFileObject>> errors = diagnostics.getDiagnostics().stream()
+                .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .toList();
+            if (!errors.isEmpty()) {
+                errors.forEach(d -> System.err.println(path + ":" + d.getLineNumber() + ": error: " + d.getMessage(null)));
+                System.err.println("error: compilation failed");
+                return Optional.empty();
+            }
+            return Optional.of(new Program(mainClass, new MemoryClassLoader(files.classes)));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("error: " + e);
+            return Optional.empty();
+        }
+    }
+
+    // The first top-level class of the file is the main class, an implicit class is named after the file
+    static String mainClass(Iterable<? extends CompilationUnitTree> units, Path path) {
+        for (CompilationUnitTree unit : units) {
+            String prefix = unit.getPackageName() == null ? "" : unit.getPackageName() + ".";
+            for (var type : unit.getTypeDecls()) {
+                if (type instanceof ClassTree cls && !cls.getSimpleName().isEmpty()) return prefix + cls.getSimpleName();
+            }
+        }
+        String file = path.getFileName().toString();
+        return file.substring(0, file.lastIndexOf('.'));
+    }
+
+    private static String run(Optional<Program> program, boolean report) {
+        if (program.isEmpty()) return "ok";
+
+        InputStream in = System.in;
+        PrintStream out = System.out, err = System.err;
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        ClassLoader loader = program.get().loader();
+        try {
+            Thread.currentThread().setContextClassLoader(loader);
+            invokeMain(loader.loadClass(program.get().mainClass()));
+        } catch (InvocationTargetException e) {
+            if (report) {
+                System.err.print("Exception in thread \"main\" ");
+                e.getCause().printStackTrace();
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+            if (report) System.err.println("error: can't run " + program.get().mainClass() + ": " + e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(context);
+            System.setIn(in);
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return awaitThreads(before) ? "ok" : RECYCLE;
+    }
+
+    // Like `java <file>`, the run is over once the threads started by the program are done
+    private static boolean awaitThreads(Set<Thread> before) {
+        long deadline = System.currentTimeMillis() + THREAD_TIMEOUT_MS;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (before.contains(thread) || thread.isDaemon()) continue;
+            try {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException _) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) return false;
+        }
+        return true;
+    }
+
+    // Selection of the main method as in JEP 512: main(String[]) before main(), instance mains need a no-arg constructor
+    private static void invokeMain(Class<?> mainClass) throws ReflectiveOperationException {
+        Method main = findMain(mainClass, true).or(() -> findMain(mainClass, false))
+            .orElseThrow(() -> new NoSuchMethodException("main method in " + mainClass.getName()));
+        main.setAccessible(true);
+
+        Object instance = null;
+        if (!Modifier.isStatic(main.getModifiers())) {
+            Constructor<?> constructor = mainClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            instance = constructor.newInstance();
+        }
+        if (main.getParameterCount() == 1) main.invoke(instance, (Object) new String[0]);
+        else main.invoke(instance);
+    }
+
+    private static Optional<Method> findMain(Class<?> type, boolean withArgs) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                Method method = withArgs ? c.getDeclaredMethod("main", String[].class) : c.getDeclaredMethod("main");
+                if (!Modifier.isPrivate(method.getModifiers())) return Optional.of(method);
+            } catch (NoSuchMethodException _) {
+                // look further up
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Reads byte by byte, so nothing meant for the next program is buffered here
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') line.write(b);
+        }
+        return b == -1 && line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static class LastByte extends FilterOutputStream {
+        volatile int last = '\n';
+
+        LastByte(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            last = b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (len > 0) last = b[off + len - 1];
+        }
+    }
+
+    private static class SourceObject extends SimpleJavaFileObject {
+        private final String content;
+
+        SourceObject(Path path, String content) {
+            super(URI.create("string:///" + path.getFileName()), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) { return content; }
+    }
+
+    private static class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+        final Map<String, byte[]> classes = new HashMap<>();
+
+        MemoryFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() { classes.put(className, toByteArray()); }
+                    };
+                }
+            };
+        }
+    }
+
+    // Sees the JDK but not LVP itself, and is dropped with the run
+    private static class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes) {
+            super("lvp-run", ClassLoader.getPlatformClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package lvp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import lvp.skills.Stats;
+import lvp.skills.logging.Logger;
+import lvp.skills.parser.ConfigParser.Source;
+
+// Pre-started JVMs that run Java sources with the default command, so a save does not pay
+// for JVM startup and loading the compiler again, see Worker. A worker that crashed, was
+// killed or still has threads of a program running is replaced by a fresh one. If all
+// workers are busy, the source runs in its own process as before.
+class WorkerPool {
+    static final String DEFAULT_CMD = "java -Dsun.stdout.encoding=UTF-8 --enable-preview";
+
+    private record Handle(Process process, BufferedReader reader) {}
+
+    // Output of one run, ending at the marker of the worker
+    class Run {
+        private final Handle worker;
+        private final String marker = UUID.randomUUID().toString();
+        private Optional<String> status = Optional.empty();
+        private boolean done = false;
+
+        private Run(Handle worker) {
+            this.worker = worker;
+        }
+
+        Process process() { return worker.process(); }
+
+        Stream<String> lines() {
+            Iterator<String> lines = new Iterator<>() {
+                String next = null;
+
+                @Override
+                public boolean hasNext() {
+                    if (next != null) return true;
+                    if (done) return false;
+                    try {
+                        next = worker.reader().readLine();
+                    } catch (IOException _) {
+                        next = null;
+                    }
+                    if (next != null && next.startsWith(marker)) {
+                        status = Optional.of(next.substring(marker.length()).strip());
+                        next = null;
+                    }
+                    done = next == null;
+                    return !done;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    String line = next;
+                    next = null;
+                    return line;
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(lines, Spliterator.ORDERED | Spliterator.NONNULL), false);
+        }
+
+        // Returns the worker to the pool if it finished the run cleanly
+        void finish() {
+            if (done && worker.process().isAlive() && status.filter(s -> !s.equals(Worker.RECYCLE)).isPresent()) {
+                idle.offer(worker);
+            } else {
+                recycle(worker);
+            }
+        }
+    }
+
+    private final LinkedBlockingQueue<Handle> idle = new LinkedBlockingQueue<>();
+    private volatile boolean running = true;
+
+    WorkerPool(int size) {
+        for (int i = 0; i < size; i++) Thread.ofVirtual().start(this::start);
+        Stats.gauge("workers.idle", idle::size);
+    }
+
+    // Sources run by the default command, which the worker and the class cache can run the same way
+    static boolean accepts(Source source) {
+        return source.cmd().equals(DEFAULT_CMD) && source.path().toString().endsWith(".java");
+    }
+
+    // Empty if no worker is ready. Classes from the cache are loaded instead of compiling the source.
+    Optional<Run> run(Path path, Optional<ClassCache.Entry> compiled) {
+        Handle worker = idle.poll();
+        if (worker == null) {
+            Stats.increment("workers.busy");
+            return Optional.empty();
+        }
+        Run run = new Run(worker);
+        try {
+            OutputStream in = worker.process().getOutputStream();
+            String command = run.marker + "\t" + path.toAbsolutePath()
+                + compiled.map(entry -> "\t" + entry.classes().toAbsolutePath() + "\t" + entry.mainClass()).orElse("");
+            in.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            in.flush();
+        } catch (IOException e) {
+            Logger.logError("Worker not reachable, running in a new process", e);
+            recycle(worker);
+            return Optional.empty();
+        }
+        return Optional.of(run);
+    }
+
+    void stop() {
+        running = false;
+        Handle worker;
+        while ((worker = idle.poll()) != null) worker.process().destroyForcibly();
+    }
+
+    private void recycle(Handle worker) {
+        worker.process().destroyForcibly();
+        Stats.increment("workers.recycled");
+        if (running) Thread.ofVirtual().start(this::start);
+    }
+
+    private void start() {
+        try {
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            String classpath = Path.of(Worker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+            Process process = new ProcessBuilder(java, "-Dsun.stdout.encoding=UTF-8", "-Dstdout.encoding=UTF-8", "--enable-preview",
+                    "-cp", classpath, Worker.class.getName())
+                .redirectErrorStream(true)
+                .start();
+            BufferedReader reader = process.inputReader(StandardCharsets.UTF_8);
+
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals(Worker.READY)) Logger.logDebug("Worker: " + line);
+            if (line == null) {
+                Logger.logError("Worker exited during startup");
+                return;
+            }
+            if (!running) {
+                process.destroyForcibly();
+                return;
+            }
+            idle.offer(new Handle(process, reader));
+            Stats.increment("workers.started");
+        } catch (Exception e) {
+            Logger.logError("Could not start worker", e);
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.OptionalInt;
 import java.util.stream.Collectors;
 
 import lvp.Processor.MetaInformation;
+import lvp.skills.Dependencies;
 import lvp.skills.HTMLElements;
 import lvp.skills.ParsingTools;
 import lvp.skills.TextUtils;
@@ -39,6 +40,7 @@ public class Interaction {
             Logger.logError("Invalid path in button command");
             return null;
         }
+        Dependencies.record(meta.sourceId(), path.get());
         OptionalInt width = ParsingTools.tryInt(fields.get("width"));
         OptionalInt height = ParsingTools.tryInt(fields.get("height"));
 
@@ -76,6 +78,7 @@ public class Interaction {
             Logger.logError("Invalid path in input command");
             return null;
         }
+        Dependencies.record(meta.sourceId(), path.get());
 
         Logger.logDebug("Parsed input with path=" + path + ", label=" + label + ", type=" + type);
         String inputElement = HTMLElements.input("input" + meta.id(), placeholder, type, ParsingTools.stripQuotes(label).replaceFirst("//", "").strip());
@@ -114,6 +117,7 @@ public class Interaction {
             Logger.logError("Invalid path in checkbox command");
             return null;
         }
+        Dependencies.record(meta.sourceId(), path.get());
 
         boolean checked = Boolean.parseBoolean(fields.getOrDefault("checked", "false"));
 
@@ -6,6 +6,8 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import lvp.Processor.MetaInformation;
+import lvp.skills.Dependencies;
+import lvp.skills.ParsingTools;
 import lvp.skills.TextUtils;
 import lvp.skills.logging.Logger;
 
@@ -29,6 +31,7 @@ public class Text {
             Logger.logError("(" + meta.id() + ") Invalid Codeblock Format.");
             return null;
         }
+        ParsingTools.tryPath(parts[0].strip()).ifPresent(path -> Dependencies.record(meta.sourceId(), path));
         return TextUtils.codeBlock(parts[0].strip(), parts[1].strip());
     }
 
@@ -38,6 +41,7 @@ public class Text {
             Logger.logError("(" + meta.id() + ") Invalid Codeblock Format.");
             return null;
         }
+        ParsingTools.tryPath(parts[0].strip()).ifPresent(path -> Dependencies.record(meta.sourceId(), path));
         if (parts.length == 1)
             return TextUtils.read(parts[0].strip());
         return TextUtils.cutOut(parts[0].strip(), Arrays.stream(parts).skip(1).map(String::strip).toArray(String[]::new));
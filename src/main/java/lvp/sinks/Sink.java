@@ -9,6 +9,9 @@ import lvp.skills.TriConsumer;
 
 public interface Sink {
     void clear(String sourceId);
+    void finish(String sourceId);
+    void abort(String sourceId);
+    void remove(String sourceId);
     void error(MetaInformation meta, String message);
     Map<String, BiFunction<MetaInformation, String, String>> registerTransformer();
     Map<String, BiConsumer<MetaInformation, String>> registerChannel();
@@ -0,0 +1,122 @@
+package lvp.sinks.server_sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import lvp.skills.logging.Logger;
+
+// Web resources from the classpath, read once with precomputed headers and gzip variant
+class AssetCache {
+    record Asset(byte[] bytes, Optional<byte[]> gzip, String contentType, String etag, String cacheControl) {
+        // The gzip body is a different representation and needs a validator of its own
+        String gzipEtag() {
+            return etag.substring(0, etag.length() - 1) + "-gz\"";
+        }
+    }
+
+    private static final List<String> ROOTS = List.of("web", "sinks");
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+        "html", "text/html; charset=utf-8",
+        "js", "text/javascript; charset=utf-8",
+        "css", "text/css; charset=utf-8",
+        "md", "text/markdown; charset=utf-8",
+        "ico", "image/x-icon");
+
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+    AssetCache() {
+        long start = System.nanoTime();
+        preload();
+        Logger.logInfo("Cached " + assets.size() + " web resource(s) in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    // Resources that were not found at startup are looked up once more on demand; misses are not cached
+    Optional<Asset> get(String resourcePath) {
+        return Optional.ofNullable(assets.computeIfAbsent(resourcePath, path -> {
+            try (InputStream stream = Server.class.getResourceAsStream(path)) {
+                return stream == null ? null : toAsset(path, stream.readAllBytes());
+            } catch (IOException e) {
+                Logger.logError("Error reading resource '" + path + "'", e);
+                return null;
+            }
+        }));
+    }
+
+    private void preload() {
+        try {
+            URI location = Server.class.getProtectionDomain().getCodeSource().getLocation().toURI();
+            Path codeSource = Path.of(location);
+            if (Files.isDirectory(codeSource)) {
+                preload(codeSource);
+            } else {
+                try (FileSystem jar = FileSystems.newFileSystem(codeSource)) {
+                    preload(jar.getPath("/"));
+                }
+            }
+        } catch (Exception e) {
+            Logger.logError("Could not preload web resources, loading them on demand", e);
+        }
+    }
+
+    private void preload(Path root) throws IOException {
+        for (String dir : ROOTS) {
+            Path base = root.resolve(dir);
+            if (!Files.isDirectory(base)) continue;
+            try (Stream<Path> files = Files.walk(base)) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    String resourcePath = "/" + root.relativize(file).toString().replace('\\', '/');
+                    assets.put(resourcePath, toAsset(resourcePath, Files.readAllBytes(file)));
+                }
+            }
+        }
+    }
+
+    private static Asset toAsset(String resourcePath, byte[] bytes) throws IOException {
+        String extension = resourcePath.substring(resourcePath.lastIndexOf('.') + 1).toLowerCase();
+        String contentType = CONTENT_TYPES.get(extension);
+        if (contentType == null) {
+            String probed = Files.probeContentType(Path.of(resourcePath));
+            contentType = probed == null ? "application/octet-stream" : probed;
+        }
+
+        // The app itself is revalidated on every load, the bundled libraries are kept for a day
+        String cacheControl = resourcePath.startsWith("/web/") ? "no-cache" : "public, max-age=86400";
+        Optional<byte[]> gzip = contentType.startsWith("text/") ? gzip(bytes) : Optional.empty();
+        return new Asset(bytes, gzip, contentType, etag(bytes), cacheControl);
+    }
+
+    // Empty if compressing does not pay off
+    static Optional<byte[]> gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        return out.size() < bytes.length ? Optional.of(out.toByteArray()) : Optional.empty();
+    }
+
+    private static String etag(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return "\"" + HexFormat.of().formatHex(hash, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
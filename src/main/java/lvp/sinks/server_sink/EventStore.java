@@ -0,0 +1,203 @@
+package lvp.sinks.server_sink;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import lvp.sinks.server_sink.Server.EventMessage;
+import lvp.skills.logging.Logger;
+
+// Replay log of the events sent to the browser, grouped by source. Appending is O(1).
+// A later event with the same type and id replaces the earlier one, so a new browser
+// tab only receives what is still visible. Above the memory limit the oldest events
+// are evicted first.
+//
+// Every event gets a sequence number. The journal keeps the most recent events in
+// the order they were published, so a reconnecting browser only needs the delta.
+// It has a budget of its own, so both together hold up to twice the memory limit.
+class EventStore {
+    record Snapshot(long seq, List<EventMessage> events) {}
+
+    private record Entry(EventMessage event, long size) {}
+
+    private static class SourceLog {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        long bytes = 0;
+    }
+
+    // Data of a removal that removes the whole source with its subview
+    static final String SOURCE = "SOURCE";
+
+    // Sequence numbers restart with the server; the epoch tells a reconnecting browser apart from a stale one
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final long maxBytes;
+    private final Map<String, SourceLog> sources = new LinkedHashMap<>();
+    private final Deque<Entry> journal = new ArrayDeque<>();
+    private long bytes = 0;
+    private long journalBytes = 0;
+    private long seq = 0;
+    private long version = 0; // changes with every append and replace
+    private long evicted = 0;
+
+    EventStore(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized EventMessage append(EventMessage event) {
+        version++;
+        SourceLog log = sources.computeIfAbsent(event.sourceId(), _ -> new SourceLog());
+        if (event.type() == SSEType.CLEAR) {
+            // everything before a clear is gone in the browser anyway
+            if (isGlobal(event)) sources.values().forEach(this::drop);
+            else drop(log);
+        }
+
+        Entry entry = new Entry(event.withSeq(++seq), sizeOf(event));
+        if (event.type() == SSEType.REMOVE && event.data().equals(SOURCE)) {
+            drop(log);
+            sources.remove(event.sourceId());
+        }
+        else if (event.type() == SSEType.REMOVE) remove(log, entry.event());
+        else put(log, entry);
+        if (bytes > maxBytes) evict();
+
+        journal.addLast(entry);
+        journalBytes += entry.size();
+        while (journalBytes > maxBytes && journal.size() > 1) journalBytes -= journal.removeFirst().size();
+
+        return entry.event();
+    }
+
+    // Replaces the log of a source with the given, already published events
+    synchronized void replace(String sourceId, List<EventMessage> events) {
+        version++;
+        SourceLog log = sources.computeIfAbsent(sourceId, _ -> new SourceLog());
+        drop(log);
+        for (EventMessage event : events) put(log, new Entry(event, sizeOf(event)));
+        if (bytes > maxBytes) evict();
+    }
+
+    synchronized Snapshot snapshot() {
+        return snapshot(Optional.empty());
+    }
+
+    synchronized Snapshot snapshot(Optional<String> sourceId) {
+        List<EventMessage> events = new ArrayList<>();
+        for (Map.Entry<String, SourceLog> source : sources.entrySet()) {
+            if (sourceId.isPresent() && !sourceId.get().equals(source.getKey())) continue;
+            for (Entry entry : source.getValue().entries.values()) events.add(entry.event());
+        }
+        return new Snapshot(seq, events);
+    }
+
+    // Events published after the given event id, empty if some of them are no longer in the journal
+    synchronized Optional<List<EventMessage>> since(String eventId) {
+        String[] parts = eventId.strip().split("-", 2);
+        if (parts.length != 2 || !parts[0].equals(epoch)) return Optional.empty();
+
+        long last;
+        try { last = Long.parseLong(parts[1]); } catch (NumberFormatException _) { return Optional.empty(); }
+        if (last > seq) return Optional.empty();
+        if (last == seq) return Optional.of(List.of());
+        if (journal.isEmpty() || journal.getFirst().event().seq() > last + 1) return Optional.empty();
+
+        List<EventMessage> delta = new ArrayList<>();
+        Iterator<Entry> it = journal.descendingIterator();
+        while (it.hasNext()) {
+            EventMessage event = it.next().event();
+            if (event.seq() <= last) break;
+            delta.add(event);
+        }
+        return Optional.of(delta.reversed());
+    }
+
+    String eventId(long seq) { return epoch + "-" + seq; }
+
+    synchronized long version() { return version; }
+    synchronized long bytes() { return bytes; }
+    synchronized long evicted() { return evicted; }
+    synchronized int journalSize() { return journal.size(); }
+
+    private void put(SourceLog log, Entry entry) {
+        String key = keyOf(entry.event());
+        Entry replaced = log.entries.remove(key);
+        if (replaced != null) subtract(log, replaced.size());
+        log.entries.put(key, entry);
+        log.bytes += entry.size();
+        bytes += entry.size();
+    }
+
+    // A removal names the type of the removed element in its data, a removed LOG stands for all logs of the source
+    private void remove(SourceLog log, EventMessage removal) {
+        Iterator<Entry> it = log.entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            EventMessage event = entry.event();
+            boolean matches = removal.data().equals(SSEType.LOG.name())
+                ? event.type() == SSEType.LOG
+                : keyOf(event).equals(removal.data() + ":" + removal.id());
+            if (matches) {
+                subtract(log, entry.size());
+                it.remove();
+            }
+        }
+    }
+
+    private void drop(SourceLog log) {
+        bytes -= log.bytes;
+        log.bytes = 0;
+        log.entries = new LinkedHashMap<>();
+    }
+
+    private void subtract(SourceLog log, long size) {
+        log.bytes -= size;
+        bytes -= size;
+    }
+
+    private void evict() {
+        long before = evicted;
+        while (bytes > maxBytes) {
+            SourceLog oldest = null;
+            long oldestSeq = Long.MAX_VALUE;
+            for (SourceLog log : sources.values()) {
+                if (log.entries.isEmpty()) continue;
+                long head = log.entries.values().iterator().next().event().seq();
+                if (head < oldestSeq) {
+                    oldestSeq = head;
+                    oldest = log;
+                }
+            }
+            if (oldest == null) break;
+
+            Iterator<Entry> it = oldest.entries.values().iterator();
+            subtract(oldest, it.next().size());
+            it.remove();
+            evicted++;
+        }
+        if (evicted > before) Logger.logDebug("Event store exceeded " + maxBytes + " bytes, evicted " + (evicted - before) + " event(s)");
+    }
+
+    // Logs and events without id are never superseded, an insert stands for the element it inserts
+    private static String keyOf(EventMessage event) {
+        if (event.type() == SSEType.LOG || event.id().isEmpty()) return "#" + event.seq();
+        if (event.type() == SSEType.INSERT) return event.data().substring(0, Math.max(0, event.data().indexOf('\n'))) + ":" + event.id();
+        return event.type() + ":" + event.id();
+    }
+
+    static boolean isGlobal(EventMessage clear) {
+        return clear.id().equals("-1") || clear.id().equals("all") || clear.id().equals("global");
+    }
+
+    static boolean supersedes(EventMessage newer, EventMessage older) {
+        return newer.sourceId().equals(older.sourceId()) && keyOf(newer).equals(keyOf(older));
+    }
+
+    private static long sizeOf(EventMessage event) {
+        return event.data().length() + event.id().length() + event.sourceId().length();
+    }
+}
@@ -0,0 +1,16 @@
+package lvp.sinks.server_sink;
+
+// What happens when a browser does not keep up with its outbound queue
+public enum OverflowPolicy {
+    RESYNC,     // drop the queue and send a fresh snapshot once the client catches up
+    COALESCE,   // drop queued events that are superseded by the new one, resync if that is not enough
+    DISCONNECT; // close the connection, the browser reconnects on its own
+
+    public static OverflowPolicy fromString(String input) {
+        return switch (input.trim().toLowerCase()) {
+            case "coalesce" -> COALESCE;
+            case "disconnect" -> DISCONNECT;
+            default -> RESYNC;
+        };
+    }
+}
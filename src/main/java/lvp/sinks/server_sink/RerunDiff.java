@@ -0,0 +1,221 @@
+package lvp.sinks.server_sink;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import lvp.sinks.server_sink.Server.EventMessage;
+import lvp.skills.Stats;
+
+// Publishes a rerun of a source as changes against the previous run instead of clearing
+// the view and sending everything again. The events of the new run are compared, while
+// they arrive, with the events of the previous run by type, id and content:
+//
+// - an event that is still there is skipped, events of the previous run passed over on
+//   the way to it are removed
+// - a new WRITE or DOT is inserted before the next element of the previous run
+// - an element with the same id as the next element of the previous run replaces it
+// - a CALL is only sent again if it changed or the element before it was published, since
+//   it usually works on the element written right before it
+// - whatever is left of the previous run is removed when the run finishes, a cancelled
+//   run leaves it in place
+//
+// A leading Clear of the program is swallowed, later or global ones are published and
+// start the view from scratch. Elements without id cannot be addressed; if the previous
+// run contained some, the run clears the view as before. All methods are called while
+// holding the event store lock.
+class RerunDiff {
+    private record Key(SSEType type, String id, String data) {
+        static Key of(EventMessage event) { return new Key(event.type(), event.id(), event.data()); }
+    }
+
+    private final String sourceId;
+    private List<EventMessage> previous = List.of();
+    private boolean[] consumed = new boolean[0];
+    private Map<Key, Deque<Integer>> positions = Map.of();
+    private Map<String, Integer> elementIds = Map.of();
+    private boolean previousHadLogs = false;
+    private boolean previousAddressable = true;
+
+    private List<EventMessage> current = new ArrayList<>();
+    private int cursor = 0;
+    private int anchor = 0;
+    private boolean running = false;
+    private boolean started = false;
+    private boolean fallback = false;
+    private boolean dirty = false;
+
+    RerunDiff(String sourceId) {
+        this.sourceId = sourceId;
+    }
+
+    boolean running() { return running; }
+
+    void begin(UnaryOperator<EventMessage> publish) {
+        running = true;
+        started = false;
+        dirty = false;
+        cursor = 0;
+        anchor = 0;
+        current = new ArrayList<>();
+
+        fallback = !previousAddressable;
+        if (fallback) {
+            publish.apply(new EventMessage(SSEType.CLEAR, "", "", sourceId));
+            forget();
+        } else if (previousHadLogs) {
+            publish.apply(new EventMessage(SSEType.REMOVE, SSEType.LOG.name(), "", sourceId));
+        }
+    }
+
+    void accept(EventMessage event, UnaryOperator<EventMessage> publish) {
+        boolean first = !started;
+        started = true;
+
+        switch (event.type()) {
+            case CLEAR -> {
+                if (first && !EventStore.isGlobal(event)) return; // the diff takes care of it
+                publish.apply(event);
+                forget();
+            }
+            case LOG -> current.add(publish.apply(event));
+            case CALL -> call(event, publish);
+            default -> element(event, publish);
+        }
+    }
+
+    private void call(EventMessage event, UnaryOperator<EventMessage> publish) {
+        int match = fallback || dirty ? -1 : find(Key.of(event));
+        if (match >= 0) {
+            skipTo(match, publish);
+            return;
+        }
+        current.add(publish.apply(event));
+        dirty = false;
+    }
+
+    private void element(EventMessage event, UnaryOperator<EventMessage> publish) {
+        if (fallback || event.id().isEmpty()) {
+            current.add(publish.apply(event));
+            dirty = true;
+            return;
+        }
+
+        int match = find(Key.of(event));
+        if (match >= 0) {
+            skipTo(match, publish);
+            dirty = false;
+            return;
+        }
+
+        // The browser replaces an element with the same id in place, one at another position has to go first
+        boolean replace = false;
+        Integer sameId = elementIds.get(event.type() + ":" + event.id());
+        if (sameId != null && sameId >= cursor && !consumed[sameId]) {
+            consumed[sameId] = true;
+            replace = sameId == cursor && positional(event);
+            if (!replace) publish.apply(removal(previous.get(sameId)));
+        }
+
+        EventMessage published;
+        String anchor = !replace && positional(event) ? nextAnchor() : "";
+        if (anchor.isEmpty()) {
+            published = publish.apply(event);
+        } else {
+            published = publish.apply(new EventMessage(SSEType.INSERT, event.type() + "\n" + anchor + "\n" + event.data(), event.id(), sourceId));
+            published = new EventMessage(event.type(), event.data(), event.id(), sourceId, published.seq());
+        }
+        current.add(published);
+        dirty = true;
+        Stats.increment("rerun.published");
+    }
+
+    // Removes what is left of the previous run and returns the events the browser now shows, in order
+    List<EventMessage> finish(UnaryOperator<EventMessage> publish) {
+        running = false;
+        removeUntil(previous.size(), publish);
+        remember(current);
+        return current;
+    }
+
+    // A superseded run removes nothing. The browser shows what it published, followed by what
+    // it has not reached of the previous run yet, and the next run is compared with that.
+    void abort() {
+        running = false;
+        List<EventMessage> shown = new ArrayList<>(current);
+        for (int i = cursor; i < previous.size(); i++) {
+            if (!consumed[i]) shown.add(previous.get(i));
+        }
+        remember(shown);
+    }
+
+    private void remember(List<EventMessage> shown) {
+        previous = shown.stream().filter(e -> e.type() != SSEType.LOG).toList();
+        previousHadLogs = shown.stream().anyMatch(e -> e.type() == SSEType.LOG);
+        previousAddressable = previous.stream().allMatch(e -> e.type() == SSEType.CALL || !e.id().isEmpty());
+
+        consumed = new boolean[previous.size()];
+        positions = new HashMap<>();
+        elementIds = new HashMap<>();
+        for (int i = 0; i < previous.size(); i++) {
+            EventMessage event = previous.get(i);
+            positions.computeIfAbsent(Key.of(event), _ -> new ArrayDeque<>()).addLast(i);
+            if (event.type() != SSEType.CALL) elementIds.put(event.type() + ":" + event.id(), i);
+        }
+    }
+
+    // The browser no longer shows anything of the previous run
+    void forget() {
+        Arrays.fill(consumed, true);
+        cursor = previous.size();
+        current.clear();
+    }
+
+    private int find(Key key) {
+        Deque<Integer> candidates = positions.get(key);
+        if (candidates == null) return -1;
+        while (!candidates.isEmpty() && (candidates.peekFirst() < cursor || consumed[candidates.peekFirst()])) candidates.removeFirst();
+        return candidates.isEmpty() ? -1 : candidates.peekFirst();
+    }
+
+    private void skipTo(int match, UnaryOperator<EventMessage> publish) {
+        removeUntil(match, publish);
+        consumed[match] = true;
+        cursor = match + 1;
+        current.add(previous.get(match));
+        Stats.increment("rerun.skipped");
+    }
+
+    private void removeUntil(int end, UnaryOperator<EventMessage> publish) {
+        for (; cursor < end; cursor++) {
+            if (consumed[cursor]) continue;
+            consumed[cursor] = true;
+            EventMessage event = previous.get(cursor);
+            if (event.type() != SSEType.CALL) {
+                publish.apply(removal(event));
+                Stats.increment("rerun.removed");
+            }
+        }
+    }
+
+    // First element of the previous run that is still shown and follows the current position.
+    // Neither the cursor nor the consumed elements go back, so the search continues where it stopped.
+    private String nextAnchor() {
+        anchor = Math.max(anchor, cursor);
+        while (anchor < previous.size() && (consumed[anchor] || !positional(previous.get(anchor)))) anchor++;
+        return anchor < previous.size() ? previous.get(anchor).id() : "";
+    }
+
+    private EventMessage removal(EventMessage event) {
+        return new EventMessage(SSEType.REMOVE, event.type().name(), event.id(), sourceId);
+    }
+
+    private static boolean positional(EventMessage event) {
+        return event.type() == SSEType.WRITE || event.type() == SSEType.DOT;
+    }
+}
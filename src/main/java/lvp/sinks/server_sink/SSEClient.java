@@ -0,0 +1,58 @@
+package lvp.sinks.server_sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import lvp.sinks.server_sink.Server.EventMessage;
+
+// Server-Sent Events, the payload is Base64 encoded to survive the text protocol
+class SSEClient extends WebClient {
+    private static final byte[] HEARTBEAT = ": heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpExchange exchange;
+
+    SSEClient(HttpExchange exchange, EventStore store, ServerOptions options, Optional<String> lastEventId, Consumer<WebClient> onClose) {
+        super("sse.client[" + exchange.getRemoteAddress() + "]", store, options, lastEventId, onClose);
+        this.exchange = exchange;
+        start();
+    }
+
+    @Override
+    void encode(ByteArrayOutputStream batch, EventMessage event, long seq) {
+        if (seq > 0) batch.writeBytes(("id: " + store.eventId(seq) + "\n").getBytes(StandardCharsets.UTF_8));
+        batch.writeBytes(("data: " + event.type()
+            + ":" + event.sourceId()
+            + ":" + event.id()
+            + ":" + Base64.getEncoder().encodeToString(event.data().getBytes(StandardCharsets.UTF_8))
+            + "\n\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    void write(byte[] batch) throws IOException {
+        OutputStream os = exchange.getResponseBody();
+        os.write(batch);
+        os.flush();
+    }
+
+    @Override
+    void heartbeat() throws IOException {
+        write(HEARTBEAT);
+    }
+
+    @Override
+    String transport() {
+        return "sse";
+    }
+
+    @Override
+    void closeTransport() {
+        exchange.close();
+    }
+}
@@ -1,3 +1,3 @@
 package lvp.sinks.server_sink;
 
-public enum SSEType { WRITE, CALL, SCRIPT, CLEAR, CSS, LOG, DOT; }
\ No newline at end of file
+public enum SSEType { WRITE, CALL, SCRIPT, CLEAR, CSS, LOG, DOT, INSERT, REMOVE; }
\ No newline at end of file
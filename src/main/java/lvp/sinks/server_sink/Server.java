@@ -1,12 +1,11 @@
 package lvp.sinks.server_sink;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
@@ -20,6 +19,7 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
 import lvp.skills.Scan;
+import lvp.skills.Stats;
 import lvp.skills.TextUtils;
 import lvp.skills.TextUtils.ReplacementType;
 import lvp.skills.logging.LogLevel;
@@ -27,7 +27,11 @@ import lvp.skills.logging.Logger;
 
 
 public class Server {
-    record EventMessage(SSEType type, String data, String id, String sourceId) {}
+    record EventMessage(SSEType type, String data, String id, String sourceId, long seq) {
+        EventMessage(SSEType type, String data, String id, String sourceId) { this(type, data, id, sourceId, 0); }
+
+        EventMessage withSeq(long seq) { return new EventMessage(type, data, id, sourceId, seq); }
+    }
 
     private final HttpServer httpServer;
 
@@ -38,12 +42,23 @@ public class Server {
     public static void setDefaultPort(int port) { defaultPort = port != 0 ? Math.abs(port) : 50_001; }
     public static int getDefaultPort() { return defaultPort; }
 
-    public final List<HttpExchange> webClients = new CopyOnWriteArrayList<>();
-    List<EventMessage> events = new CopyOnWriteArrayList<>();
+    final List<WebClient> webClients = new CopyOnWriteArrayList<>();
+    final EventStore events;
+    final ServerOptions options;
+    private final AssetCache assets = new AssetCache();
+    private final ViewSnapshot view;
+    private final Optional<WebSocketServer> webSocket;
+    private final Map<String, RerunDiff> reruns = new ConcurrentHashMap<>();
     Map<String, Process> waitingProcesses = new ConcurrentHashMap<>();
 
-    public Server(int port) throws IOException {
-        this.port = port;
+    public Server(ServerOptions options) throws IOException {
+        this.port = Math.abs(options.port());
+        this.options = options;
+        this.events = new EventStore(options.eventMemory());
+        this.view = new ViewSnapshot(events);
+        Stats.gauge("events.bytes", events::bytes);
+        Stats.gauge("events.evicted", events::evicted);
+        Stats.gauge("events.journal", events::journalSize);
 
         httpServer = HttpServer.create(new InetSocketAddress("localhost", port), 0);
         System.out.println("Open http://localhost:" + port + " in your browser");
@@ -52,10 +67,18 @@ public class Server {
         httpServer.createContext("/interact", this::handleInteract);
         httpServer.createContext("/scan", this::handleScan);
         httpServer.createContext("/events", this::handleEvents);
+        httpServer.createContext("/snapshot", this::handleSnapshot);
+        httpServer.createContext("/stats", this::handleStats);
+        httpServer.createContext("/transport", this::handleTransport);
         httpServer.createContext("/", this::handleRoot);
 
-        httpServer.setExecutor(Executors.newFixedThreadPool(5));
+        // Open SSE connections hold no request thread, but slow handlers should not queue up behind each other
+        httpServer.setExecutor(options.httpThreads() > 0
+            ? Executors.newFixedThreadPool(options.httpThreads())
+            : Executors.newVirtualThreadPerTaskExecutor());
         httpServer.start();
+
+        webSocket = options.websocketPort() > 0 ? Optional.of(new WebSocketServer(this, options.websocketPort())) : Optional.empty();
     }
 
     private void handleLog(HttpExchange exchange) throws IOException {
@@ -150,10 +173,67 @@ public class Server {
         exchange.getResponseHeaders().add("Connection", "keep-alive");
         exchange.sendResponseHeaders(200, 0);
 
-        webClients.add(exchange);
-        sendMessageToClient(exchange, new EventMessage(SSEType.CLEAR, "", "all", "server"));
-        if (!events.isEmpty()) {
-            events.forEach(event -> sendMessageToClient(exchange, event));
+        // After a snapshot the position comes as query parameter, EventSource only sets the header when reconnecting
+        Optional<String> lastEventId = Optional.ofNullable(exchange.getRequestHeaders().getFirst("Last-Event-ID"))
+            .or(() -> queryParameter(exchange.getRequestURI(), "last"));
+        synchronized (events) {
+            webClients.add(new SSEClient(exchange, events, options, lastEventId, webClients::remove));
+        }
+    }
+
+    // Current view in one response, the browser subscribes to /events from its event id afterwards
+    private void handleSnapshot(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
+            exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+            Logger.logError("Method not allowed in '/snapshot'");
+            return;
+        }
+
+        ViewSnapshot.Rendered rendered = view.render(queryParameter(exchange.getRequestURI(), "source"));
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-store");
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        byte[] body = rendered.json();
+        if (rendered.gzip().isPresent() && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            body = rendered.gzip().get();
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
+            exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+            Logger.logError("Method not allowed in '/stats'");
+            return;
+        }
+
+        final byte[] bytes = Stats.report().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    // Tells the browser whether it can use the binary WebSocket transport instead of SSE
+    private void handleTransport(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("get")) {
+            exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+            Logger.logError("Method not allowed in '/transport'");
+            return;
+        }
+
+        final byte[] bytes = ("{\"websocket\":" + (webSocket.isPresent() ? options.websocketPort() : 0) + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
         }
     }
 
@@ -167,52 +247,104 @@ public class Server {
         final String resourcePath = exchange.getRequestURI().getPath().equals("/") ? INDEX : exchange.getRequestURI().getPath();
         Logger.logDebug("Sending '" + resourcePath + "'");
 
-        try (final InputStream stream = Server.class.getResourceAsStream(resourcePath)) {
-
-            if (stream == null) {
+        try (exchange) {
+            Optional<AssetCache.Asset> asset = assets.get(resourcePath);
+            if (asset.isEmpty()) {
                 exchange.sendResponseHeaders(404, -1);
+                return;
             }
-            else {
-                final byte[] bytes = stream.readAllBytes();
-                exchange.getResponseHeaders().add("Content-Type", Files.probeContentType(Path.of(resourcePath)) + "; charset=utf-8");
-                exchange.sendResponseHeaders(200, bytes.length);
-                exchange.getResponseBody().write(bytes);
+
+            AssetCache.Asset a = asset.get();
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = a.gzip().isPresent() && acceptEncoding != null && acceptEncoding.contains("gzip");
+            String etag = gzip ? a.gzipEtag() : a.etag();
+            exchange.getResponseHeaders().add("Content-Type", a.contentType());
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.getResponseHeaders().add("Cache-Control", a.cacheControl());
+            exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+
+            // Only a validator of the variant that would be sent makes the cached copy current
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.strip().equals("*"))) {
+                exchange.sendResponseHeaders(304, -1); // Not Modified
+                return;
             }
-                exchange.getResponseBody().flush();
-        } finally {
-            exchange.close();
+
+            byte[] body = a.bytes();
+            if (gzip) {
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                body = a.gzip().get();
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
         }
     }
 
     public void sendServerEvent(SSEType type, String data, String id, String sourceId) {
         Logger.logDebug("Event: " + type + " with data: " + data + " to " + sourceId);
-        sendServerEvent(new EventMessage(type, Base64.getEncoder().encodeToString(data.getBytes(StandardCharsets.UTF_8)), id, sourceId));
+        sendServerEvent(new EventMessage(type, data, id, sourceId));
     }
 
     private void sendServerEvent(EventMessage event) {
-        events.add(event);
-        if (webClients.isEmpty()) return;        
-        webClients.removeIf(connection -> !sendMessageToClient(connection, event));
+        synchronized (events) {
+            if (event.type() == SSEType.CLEAR && EventStore.isGlobal(event)) reruns.values().forEach(RerunDiff::forget);
+            RerunDiff rerun = reruns.get(event.sourceId());
+            if (rerun != null && rerun.running()) rerun.accept(event, this::publish);
+            else publish(event);
+        }
     }
 
-    private boolean sendMessageToClient(HttpExchange connection, EventMessage event) {
-        try {
-            String message = "data: " + event.type() 
-                + ":" + event.sourceId() 
-                + ":" + event.id() 
-                + ":" +  event.data() 
-                + "\n\n";
-            OutputStream os = connection.getResponseBody();
-            os.write(message.getBytes(StandardCharsets.UTF_8));
-            os.flush();
-            return true;
-        } catch (IOException _) {
-            Logger.logError("Web exchange '" + connection.getRemoteAddress() + "' did not respond. Closing...");
-            connection.close();
-            return false;
+    // Called while holding the store lock, so all clients see the events in the order of the store
+    private EventMessage publish(EventMessage event) {
+        EventMessage published = events.append(event);
+        webClients.forEach(client -> client.send(published));
+        return published;
+    }
+
+    // Events of a source between beginRun and finishRun are published as changes against its previous run
+    void beginRun(String sourceId) {
+        synchronized (events) {
+            RerunDiff rerun = reruns.computeIfAbsent(sourceId, RerunDiff::new);
+            if (rerun.running()) rerun.abort();
+            rerun.begin(this::publish);
+        }
+    }
+
+    void finishRun(String sourceId) {
+        synchronized (events) {
+            RerunDiff rerun = reruns.get(sourceId);
+            if (rerun != null && rerun.running()) events.replace(sourceId, rerun.finish(this::publish));
+        }
+    }
+
+    // The run was superseded: what it published stays, the store and the browser are not compacted
+    void abortRun(String sourceId) {
+        synchronized (events) {
+            RerunDiff rerun = reruns.get(sourceId);
+            if (rerun != null && rerun.running()) rerun.abort();
         }
     }
 
+    // The source is gone, so are its subview and its replay log
+    void removeSource(String sourceId) {
+        synchronized (events) {
+            reruns.remove(sourceId);
+            publish(new EventMessage(SSEType.REMOVE, EventStore.SOURCE, "", sourceId));
+        }
+        Process waiting = waitingProcesses.remove(sourceId);
+        if (waiting != null) waiting.destroyForcibly();
+    }
+
+    static Optional<String> queryParameter(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query == null) return Optional.empty();
+        return Arrays.stream(query.split("&"))
+            .map(param -> param.split("=", 2))
+            .filter(kv -> kv.length == 2 && kv[0].equals(name) && !kv[1].isBlank())
+            .map(kv -> URLDecoder.decode(kv[1], StandardCharsets.UTF_8))
+            .findFirst();
+    }
+
     private String readRequestBody(HttpExchange exchange) throws IOException {
         if (!exchange.getRequestMethod().equalsIgnoreCase("post")) {
             Logger.logError("Method not allowed in '" + exchange.getRequestURI().getPath() + "'");
@@ -252,8 +384,9 @@ public class Server {
 
     public void stop() {
         Logger.logInfo("Closing Server on port '" + port + "'");
-        for (HttpExchange connection : webClients) {
-            connection.close();
+        webSocket.ifPresent(WebSocketServer::stop);
+        for (WebClient client : webClients) {
+            client.close();
         }
         httpServer.stop(0);
     }
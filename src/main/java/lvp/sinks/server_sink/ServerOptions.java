@@ -0,0 +1,12 @@
+package lvp.sinks.server_sink;
+
+import java.time.Duration;
+
+public record ServerOptions(int port, long eventMemory, int clientQueue, OverflowPolicy overflow, Duration heartbeat,
+                            Duration batchWindow, int batchBytes, int httpThreads, int websocketPort) {
+    public static final long DEFAULT_EVENT_MEMORY = 128L * 1024 * 1024;
+    public static final int DEFAULT_CLIENT_QUEUE = 4096;
+    public static final Duration DEFAULT_HEARTBEAT = Duration.ofSeconds(15);
+    public static final Duration DEFAULT_BATCH_WINDOW = Duration.ofMillis(8);
+    public static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+}
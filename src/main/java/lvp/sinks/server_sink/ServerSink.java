@@ -15,8 +15,8 @@ public class ServerSink implements Sink {
     Server server;
     HttpChannel channel;
 
-    public ServerSink(int port) throws IOException {
-        server = new Server(Math.abs(port));
+    public ServerSink(ServerOptions options) throws IOException {
+        server = new Server(options);
         channel = HttpChannel.of(server);
         Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
     }
@@ -42,15 +42,31 @@ public class ServerSink implements Sink {
             "Clear", channel::consumeClear);
     }
 
+    // The view is not cleared right away, the run is published as changes against the previous one
     @Override
     public void clear(String sourceId) {
-        server.events.removeIf(event -> event.sourceId().equals(sourceId));
+        server.beginRun(sourceId);
         if (server.waitingProcesses.containsKey(sourceId)) {
             server.waitingProcesses.get(sourceId).destroyForcibly();
             server.waitingProcesses.remove(sourceId);
         }
     }
 
+    @Override
+    public void finish(String sourceId) {
+        server.finishRun(sourceId);
+    }
+
+    @Override
+    public void abort(String sourceId) {
+        server.abortRun(sourceId);
+    }
+
+    @Override
+    public void remove(String sourceId) {
+        server.removeSource(sourceId);
+    }
+
     @Override
     public void error(MetaInformation meta, String message) {
         channel.consumeError(meta, message);
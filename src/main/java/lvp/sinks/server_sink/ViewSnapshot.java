@@ -0,0 +1,126 @@
+package lvp.sinks.server_sink;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import lvp.sinks.server_sink.Server.EventMessage;
+import lvp.skills.Stats;
+
+// Materialized view of the event store for a new browser tab. Consecutive WRITEs of a
+// source are folded into one list of elements, so the browser inserts them with a single
+// DOM operation instead of handling every event on its own. All other events keep
+// their position, since calls and scripts may refer to the elements before them.
+//
+// The browser subscribes to live events from the event id of the snapshot afterwards.
+class ViewSnapshot {
+    record Rendered(long version, Optional<String> sourceId, byte[] json, Optional<byte[]> gzip) {}
+
+    private final EventStore store;
+    private volatile Rendered cached = null;
+
+    ViewSnapshot(EventStore store) {
+        this.store = store;
+    }
+
+    // The last rendering is reused as long as the store has not changed since
+    Rendered render(Optional<String> sourceId) {
+        Rendered last = cached;
+        EventStore.Snapshot snapshot;
+        long version;
+        synchronized (store) {
+            version = store.version();
+            if (last != null && last.version() == version && last.sourceId().equals(sourceId)) return last;
+            snapshot = store.snapshot(sourceId);
+        }
+
+        long start = System.nanoTime();
+        byte[] json = toJson(store.eventId(snapshot.seq()), snapshot.events()).getBytes(StandardCharsets.UTF_8);
+        Rendered rendered = new Rendered(version, sourceId, json, AssetCache.gzip(json));
+        cached = rendered;
+
+        Stats.record("snapshot.events", snapshot.events().size());
+        Stats.record("snapshot.bytes", json.length);
+        Stats.record("snapshot.render.ms", (System.nanoTime() - start) / 1_000_000);
+        return rendered;
+    }
+
+    private static String toJson(String eventId, List<EventMessage> events) {
+        StringBuilder json = new StringBuilder("{\"eventId\":");
+        appendString(json, eventId);
+        json.append(",\"events\":[");
+
+        List<EventMessage> writes = new ArrayList<>();
+        boolean first = true;
+        for (EventMessage event : events) {
+            if (event.type() == SSEType.WRITE) {
+                if (!writes.isEmpty() && !writes.getFirst().sourceId().equals(event.sourceId())) {
+                    first = appendElements(json, first, writes);
+                    writes.clear();
+                }
+                writes.add(event);
+                continue;
+            }
+            if (!writes.isEmpty()) {
+                first = appendElements(json, first, writes);
+                writes.clear();
+            }
+            first = appendEvent(json, first, event.type().name(), event.sourceId(), event.id(), event.data());
+        }
+        if (!writes.isEmpty()) appendElements(json, first, writes);
+
+        return json.append("]}").toString();
+    }
+
+    // Every element keeps its own markup, so unbalanced tags cannot spill into the next one
+    private static boolean appendElements(StringBuilder json, boolean first, List<EventMessage> writes) {
+        if (!first) json.append(',');
+        json.append("{\"type\":\"HTML\",\"sourceId\":");
+        appendString(json, writes.getFirst().sourceId());
+        json.append(",\"elements\":[");
+        for (int i = 0; i < writes.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":");
+            appendString(json, writes.get(i).id());
+            json.append(",\"html\":");
+            appendString(json, writes.get(i).data());
+            json.append('}');
+        }
+        json.append("]}");
+        return false;
+    }
+
+    private static boolean appendEvent(StringBuilder json, boolean first, String type, String sourceId, String id, String data) {
+        if (!first) json.append(',');
+        json.append("{\"type\":");
+        appendString(json, type);
+        json.append(",\"sourceId\":");
+        appendString(json, sourceId);
+        json.append(",\"id\":");
+        appendString(json, id);
+        json.append(",\"data\":");
+        appendString(json, data);
+        json.append('}');
+        return false;
+    }
+
+    private static void appendString(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+                    else json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,170 @@
+package lvp.sinks.server_sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import lvp.sinks.server_sink.Server.EventMessage;
+import lvp.skills.Stats;
+import lvp.skills.logging.Logger;
+
+// One connected browser. Events are queued without blocking the caller and written
+// by the client's own virtual thread, so a stalled tab only stalls itself. Events that
+// arrive within the batch window are sent with a single write and flush. Subclasses
+// only decide how events are encoded on the wire.
+abstract class WebClient {
+    static final EventMessage RESYNC = new EventMessage(SSEType.CLEAR, "", "all", "server");
+
+    protected final EventStore store;
+    protected final String name;
+    private final ServerOptions options;
+    private final Consumer<WebClient> onClose;
+    private final BlockingQueue<EventMessage> queue;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private Thread writer;
+
+    private volatile boolean resyncPending = false;
+    private int maxDepth = 0;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Must be created while holding the store lock, see send
+    WebClient(String name, EventStore store, ServerOptions options, Optional<String> lastEventId, Consumer<WebClient> onClose) {
+        this.name = name;
+        this.store = store;
+        this.options = options;
+        this.onClose = onClose;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, options.clientQueue()));
+
+        // A reconnecting browser only needs what it missed, everyone else starts with the full history
+        Optional<List<EventMessage>> delta = lastEventId.flatMap(store::since);
+        if (delta.isPresent() && delta.get().size() < queue.remainingCapacity()) {
+            Logger.logInfo("Resuming " + name + " after '" + lastEventId.get() + "' with " + delta.get().size() + " event(s)");
+            queue.addAll(delta.get());
+        } else {
+            resync();
+        }
+        Stats.gauge(name, this::stats);
+    }
+
+    // Encodes one event into the batch, seq > 0 marks a position the browser may resume from
+    abstract void encode(ByteArrayOutputStream batch, EventMessage event, long seq);
+    abstract void write(byte[] batch) throws IOException;
+    abstract void heartbeat() throws IOException;
+    abstract void closeTransport();
+    // Prefix of the stats of this kind of client
+    abstract String transport();
+
+    // Called by subclasses once they are fully initialized
+    protected void start() {
+        writer = Thread.ofVirtual().name(name).start(this::drain);
+    }
+
+    // Called while holding the store lock, so the order of events matches the store
+    void send(EventMessage event) {
+        if (closed.get() || resyncPending) return; // the pending snapshot will contain the event
+        if (!queue.offer(event)) overflow(event);
+        maxDepth = Math.max(maxDepth, queue.size());
+    }
+
+    private void overflow(EventMessage event) {
+        switch (options.overflow()) {
+            case DISCONNECT -> {
+                Logger.logError("Web client '" + name + "' is too slow. Closing...");
+                close();
+            }
+            case COALESCE -> {
+                int before = queue.size();
+                queue.removeIf(queued -> EventStore.supersedes(event, queued));
+                dropped.addAndGet(before - queue.size());
+                if (!queue.offer(event)) resync();
+            }
+            case RESYNC -> resync();
+        }
+    }
+
+    private void resync() {
+        dropped.addAndGet(queue.size());
+        queue.clear();
+        resyncPending = true;
+        queue.offer(RESYNC);
+    }
+
+    private void drain() {
+        try {
+            while (!closed.get()) {
+                EventMessage event = queue.poll(options.heartbeat().toMillis(), TimeUnit.MILLISECONDS);
+                if (event == null) heartbeat();
+                else writeBatch(event);
+            }
+        } catch (IOException _) {
+            if (!closed.get()) Logger.logError("Web client '" + name + "' did not respond. Closing...");
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+            closeTransport();
+        }
+    }
+
+    // Collects what arrives within the batch window, up to the byte budget, into one write
+    private void writeBatch(EventMessage first) throws IOException, InterruptedException {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        long deadline = System.nanoTime() + options.batchWindow().toNanos();
+        int count = 0;
+
+        EventMessage event = first;
+        while (event != null) {
+            if (event == RESYNC) {
+                count += encodeSnapshot(batch);
+            } else {
+                encode(batch, event, event.seq());
+                count++;
+            }
+            if (batch.size() >= options.batchBytes()) break;
+            long remaining = deadline - System.nanoTime();
+            event = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+        }
+
+        write(batch.toByteArray());
+        sent.addAndGet(count);
+        Stats.record(transport() + ".batch.events", count);
+        Stats.record(transport() + ".batch.bytes", batch.size());
+    }
+
+    // Only the last event of a snapshot carries an id, the browser resumes from there
+    private int encodeSnapshot(ByteArrayOutputStream batch) {
+        EventStore.Snapshot snapshot;
+        synchronized (store) {
+            resyncPending = false;
+            snapshot = store.snapshot();
+        }
+        List<EventMessage> events = snapshot.events();
+        encode(batch, RESYNC, events.isEmpty() ? snapshot.seq() : 0);
+        for (int i = 0; i < events.size(); i++) {
+            encode(batch, events.get(i), i == events.size() - 1 ? snapshot.seq() : 0);
+        }
+        return events.size() + 1;
+    }
+
+    String stats() {
+        return "depth=" + queue.size() + " max=" + maxDepth + " sent=" + sent.get() + " dropped=" + dropped.get();
+    }
+
+    // Closing the transport would wait for a write that is stuck on a stalled connection,
+    // so another thread only interrupts the writer, which then closes the transport itself
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        Stats.remove(name);
+        if (writer == null) closeTransport();
+        else if (Thread.currentThread() != writer) writer.interrupt();
+        onClose.accept(this);
+    }
+}
@@ -0,0 +1,121 @@
+package lvp.sinks.server_sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import lvp.sinks.server_sink.Server.EventMessage;
+import lvp.skills.logging.Logger;
+
+// WebSocket connection that sends every batch as one binary message. Each event is
+// encoded as: type (1 byte), event id, source id, id (2 byte length + UTF-8 each)
+// and the raw UTF-8 payload (4 byte length + bytes). The event id is empty unless
+// the browser can resume from this event.
+class WebSocketClient extends WebClient {
+    private static final int OP_BINARY = 0x2, OP_CLOSE = 0x8, OP_PING = 0x9, OP_PONG = 0xA;
+
+    private final Socket socket;
+    private final OutputStream out;
+
+    WebSocketClient(Socket socket, EventStore store, ServerOptions options, Optional<String> lastEventId, Consumer<WebClient> onClose) throws IOException {
+        super("ws.client[" + socket.getRemoteSocketAddress() + "]", store, options, lastEventId, onClose);
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        start();
+        Thread.ofVirtual().name(name + "-reader").start(this::read);
+    }
+
+    @Override
+    void encode(ByteArrayOutputStream batch, EventMessage event, long seq) {
+        batch.write(event.type().ordinal());
+        writeShortString(batch, seq > 0 ? store.eventId(seq) : "");
+        writeShortString(batch, event.sourceId());
+        writeShortString(batch, event.id());
+        byte[] payload = event.data().getBytes(StandardCharsets.UTF_8);
+        batch.writeBytes(ByteBuffer.allocate(4).putInt(payload.length).array());
+        batch.writeBytes(payload);
+    }
+
+    private static void writeShortString(ByteArrayOutputStream batch, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        batch.write(bytes.length >> 8);
+        batch.write(bytes.length);
+        batch.writeBytes(bytes);
+    }
+
+    @Override
+    void write(byte[] batch) throws IOException {
+        writeFrame(OP_BINARY, batch);
+    }
+
+    @Override
+    void heartbeat() throws IOException {
+        writeFrame(OP_PING, new byte[0]);
+    }
+
+    @Override
+    String transport() {
+        return "ws";
+    }
+
+    @Override
+    void closeTransport() {
+        try {
+            writeFrame(OP_CLOSE, new byte[0]);
+        } catch (IOException _) {
+            // the connection is gone already
+        }
+        try { socket.close(); } catch (IOException _) { }
+    }
+
+    // Server frames are never masked or fragmented
+    private synchronized void writeFrame(int opcode, byte[] payload) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 10);
+        frame.write(0x80 | opcode);
+        if (payload.length < 126) {
+            frame.write(payload.length);
+        } else if (payload.length < 65536) {
+            frame.write(126);
+            frame.write(payload.length >> 8);
+            frame.write(payload.length);
+        } else {
+            frame.write(127);
+            frame.writeBytes(ByteBuffer.allocate(8).putLong(payload.length).array());
+        }
+        frame.writeBytes(payload);
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    // The browser only sends control frames; everything else is ignored
+    private void read() {
+        try (DataInputStream in = new DataInputStream(socket.getInputStream())) {
+            while (true) {
+                int first = in.readUnsignedByte();
+                int second = in.readUnsignedByte();
+                long length = second & 0x7F;
+                if (length == 126) length = in.readUnsignedShort();
+                else if (length == 127) length = in.readLong();
+                byte[] mask = (second & 0x80) != 0 ? in.readNBytes(4) : null;
+                if (length > 1 << 20) throw new IOException("Frame too large: " + length);
+                byte[] payload = in.readNBytes((int) length);
+                if (mask != null) for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i % 4];
+
+                switch (first & 0x0F) {
+                    case OP_CLOSE -> { close(); return; }
+                    case OP_PING -> writeFrame(OP_PONG, payload);
+                    default -> { }
+                }
+            }
+        } catch (IOException _) {
+            Logger.logInfo("Web client '" + name + "' disconnected");
+            close();
+        }
+    }
+}
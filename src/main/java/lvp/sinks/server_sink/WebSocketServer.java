@@ -0,0 +1,128 @@
+package lvp.sinks.server_sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import lvp.skills.logging.Logger;
+
+// Minimal WebSocket listener next to the HttpServer, which cannot upgrade connections itself
+class WebSocketServer {
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final Server server;
+    private final ServerSocket socket;
+
+    WebSocketServer(Server server, int port) throws IOException {
+        this.server = server;
+        this.socket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+        Thread.ofVirtual().name("ws-accept").start(this::accept);
+        Logger.logInfo("WebSocket transport listening on port " + port);
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                Thread.ofVirtual().start(() -> handshake(connection));
+            } catch (IOException e) {
+                if (!socket.isClosed()) Logger.logError("Error accepting WebSocket connection", e);
+            }
+        }
+    }
+
+    private void handshake(Socket connection) {
+        try {
+            InputStream in = connection.getInputStream();
+            String requestLine = readLine(in);
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                String[] parts = line.split(":", 2);
+                if (parts.length == 2) headers.put(parts[0].strip().toLowerCase(), parts[1].strip());
+            }
+
+            String key = headers.get("sec-websocket-key");
+            if (requestLine == null || key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                respond(connection, "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n");
+                connection.close();
+                return;
+            }
+
+            // Browsers do not apply the same-origin policy to WebSockets, so any website could read along
+            String origin = headers.get("origin");
+            if (origin != null && !origin.equals("http://localhost:" + server.port) && !origin.equals("http://127.0.0.1:" + server.port)) {
+                Logger.logError("WebSocket connection from foreign origin '" + origin + "' refused");
+                respond(connection, "HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\n\r\n");
+                connection.close();
+                return;
+            }
+
+            respond(connection, "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept(key) + "\r\n\r\n");
+
+            // Browsers cannot set headers on a WebSocket, so the resume position comes as query parameter
+            Optional<String> lastEventId = queryParameter(requestLine, "last");
+            synchronized (server.events) {
+                server.webClients.add(new WebSocketClient(connection, server.events, server.options, lastEventId, server.webClients::remove));
+            }
+        } catch (IOException e) {
+            Logger.logError("WebSocket handshake failed", e);
+            try { connection.close(); } catch (IOException _) { }
+        }
+    }
+
+    // Reads byte by byte, anything after the headers belongs to the WebSocket stream
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') line.write(b);
+            if (line.size() > 8192) throw new IOException("Header line too long");
+        }
+        return b == -1 && line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(Socket connection, String response) throws IOException {
+        OutputStream out = connection.getOutputStream();
+        out.write(response.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static String accept(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Optional<String> queryParameter(String requestLine, String name) {
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2) return Optional.empty();
+        try {
+            return Server.queryParameter(URI.create(parts[1]), name);
+        } catch (IllegalArgumentException _) {
+            return Optional.empty();
+        }
+    }
+
+    void stop() {
+        try { socket.close(); } catch (IOException _) { }
+    }
+}
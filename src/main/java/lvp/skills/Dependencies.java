@@ -0,0 +1,28 @@
+package lvp.skills;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Dependencies { // Files the last run of each source used, so a change reruns only the sources depending on it
+    private static final Map<String, Set<Path>> files = new ConcurrentHashMap<>();
+
+    private Dependencies() {}
+
+    public static void clear(String sourceId) { files.remove(sourceId); }
+
+    public static void record(String sourceId, Path file) {
+        files.computeIfAbsent(sourceId, _ -> ConcurrentHashMap.newKeySet()).add(file.toAbsolutePath().normalize());
+    }
+
+    public static boolean dependsOn(String sourceId, Path file) {
+        return files.getOrDefault(sourceId, Set.of()).contains(file.toAbsolutePath().normalize());
+    }
+
+    // Whether any source is known to use the file
+    public static boolean isKnown(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        return files.values().stream().anyMatch(set -> set.contains(normalized));
+    }
+}
@@ -1,5 +1,9 @@
 package lvp.skills;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Random;
 import java.util.stream.Collectors;
 
@@ -13,4 +17,17 @@ public class IdGen {
     }
 
     public static String getHashID(Object o) { return Integer.toHexString(o.hashCode()); }
+
+    public static String hashID(String... parts) { // alphanumeric id that only depends on the parts
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return Long.toUnsignedString(ByteBuffer.wrap(digest.digest()).getLong(), 36);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
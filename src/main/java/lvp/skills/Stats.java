@@ -0,0 +1,54 @@
+package lvp.skills;
+
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+public class Stats { // Counters and gauges shown by '/stats'
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Supplier<Object>> gauges = new ConcurrentSkipListMap<>();
+    private static final Map<String, Summary> summaries = new ConcurrentSkipListMap<>();
+
+    private static class Summary {
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        @Override
+        public String toString() {
+            long n = count.sum();
+            return "count=" + n + " avg=" + (n == 0 ? 0 : total.sum() / n) + " max=" + (n == 0 ? 0 : max.get());
+        }
+    }
+
+    private Stats() {}
+
+    public static void increment(String name) { add(name, 1); }
+    public static void add(String name, long delta) { counters.computeIfAbsent(name, _ -> new LongAdder()).add(delta); }
+    public static long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    // Keeps count, average and maximum of the recorded values, e.g. sizes or durations
+    public static void record(String name, long value) {
+        Summary summary = summaries.computeIfAbsent(name, _ -> new Summary());
+        summary.count.increment();
+        summary.total.add(value);
+        summary.max.accumulate(value);
+    }
+
+    public static void gauge(String name, Supplier<Object> value) { gauges.put(name, value); }
+    public static void remove(String name) { gauges.remove(name); }
+
+    public static String report() {
+        StringJoiner out = new StringJoiner("\n");
+        counters.forEach((name, counter) -> out.add(name + ": " + counter.sum()));
+        summaries.forEach((name, summary) -> out.add(name + ": " + summary));
+        gauges.forEach((name, value) -> out.add(name + ": " + value.get()));
+        return out.length() == 0 ? "No stats recorded yet." : out.toString();
+    }
+}
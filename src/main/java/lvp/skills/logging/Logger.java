@@ -7,6 +7,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 public class Logger {
@@ -52,6 +53,8 @@ public class Logger {
     public static void logInfo(String message) { log(LogLevel.Info, message); }
     public static void logDebug(String message, Throwable error) { log(LogLevel.Debug, message, error); }
     public static void logDebug(String message) { log(LogLevel.Debug, message); }
+    // The message is only built if debug messages are logged
+    public static void logDebug(Supplier<String> message) { if (minLogLevel == LogLevel.Debug) log(LogLevel.Debug, message.get()); }
 
 
     // https://www.baeldung.com/java-stacktrace-to-string
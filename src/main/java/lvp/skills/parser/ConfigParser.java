@@ -11,20 +11,42 @@ import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import lvp.skills.ParsingTools;
 import lvp.skills.logging.Logger;
 
 public class ConfigParser {
-    public record Source(Path path, String cmd) {
+    public record Source(Path path, String cmd, int priority, Optional<String> include) {
+        public Source(Path path, String cmd) { this(path, cmd, 0, Optional.empty()); }
+
+        // Files matching the glob of the config are read by the program, relative to the working directory
+        public boolean includes(Path file) {
+            return include.isPresent() && PathParser.matches(include.get(), file);
+        }
+
         public String id() {
             return Base64.getUrlEncoder().withoutPadding().encodeToString(path().toString().getBytes(StandardCharsets.UTF_8));
         }
     }
 
+    // Path or glob of one or more sources, from the command line or sources.json
+    public record SourceSpec(String path, String cmd, int priority, Optional<String> include) {
+        public SourceSpec(String path, String cmd) { this(path, cmd, 0, Optional.empty()); }
+
+        public Source toSource(Path file) { return new Source(file.toAbsolutePath().normalize(), cmd, priority, include); }
+
+        public boolean matches(Path file) {
+            if (PathParser.isGlob(path)) return PathParser.matches(path, file);
+            return ParsingTools.tryPath(path)
+                .map(p -> p.toAbsolutePath().normalize().equals(file.toAbsolutePath().normalize()))
+                .orElse(false);
+        }
+    }
+
     private static final Pattern OBJECT_PATTERN = Pattern.compile(
-        "\\{\\s*\"path\"\\s*:\\s*\"(.*?)\"\\s*,\\s*\"cmd\"\\s*:\\s*\"(.*?)\"\\s*\\},?"
+        "\\{\\s*\"path\"\\s*:\\s*\"(.*?)\"\\s*,\\s*\"cmd\"\\s*:\\s*\"(.*?)\"\\s*(?:,\\s*\"priority\"\\s*:\\s*(-?\\d+)\\s*)?(?:,\\s*\"include\"\\s*:\\s*\"(.*?)\"\\s*)?\\},?"
     );
 
-    public static Optional<List<Source>> parse(Path path) {
+    public static Optional<List<SourceSpec>> parse(Path path) {
         try {
             String content = Files.readString(path).strip();
             return  parseJson(content);
@@ -34,7 +56,7 @@ public class ConfigParser {
         return Optional.empty();
     }
 
-    private static Optional<List<Source>> parseJson(String json) {
+    private static Optional<List<SourceSpec>> parseJson(String json) {
         if (!json.startsWith("[") || !json.endsWith("]")) {
             Logger.logError("Expected JSON array.");
             return Optional.empty();
@@ -47,22 +69,21 @@ public class ConfigParser {
         }
 
         Matcher matcher = OBJECT_PATTERN.matcher(arrayContent);
-        List<Source> sources = new ArrayList<>();
+        List<SourceSpec> sources = new ArrayList<>();
 
         StringBuilder cleaned = new StringBuilder();
         
         while (matcher.find()) {
             String pathString = matcher.group(1);
-            Optional<List<Path>> paths = PathParser.parse(pathString);
-            if (paths.isEmpty()) {
+            if (!PathParser.isGlob(pathString) && ParsingTools.tryPath(pathString).isEmpty()) {
                 Logger.logError("Invalid Path in JSON: " + pathString);
                 return Optional.empty();
             }
 
             String cmd = matcher.group(2);
-            sources.addAll(paths.get().stream()
-                .map(path -> new Source(path, cmd))
-                .toList());
+            int priority = matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3));
+            Optional<String> include = Optional.ofNullable(matcher.group(4)).filter(glob -> !glob.isBlank());
+            sources.add(new SourceSpec(pathString, cmd, priority, include));
             matcher.appendReplacement(cleaned, "");
         }
         matcher.appendTail(cleaned);
@@ -0,0 +1,14 @@
+package lvp.skills.parser;
+
+// How commands without explicit id get their id
+public enum IdMode {
+    STABLE, // derived from source, name and content, so unchanged blocks keep their id across runs
+    RANDOM; // a new random id on every run
+
+    public static IdMode fromString(String input) {
+        return switch (input.trim().toLowerCase()) {
+            case "random" -> RANDOM;
+            default -> STABLE;
+        };
+    }
+}
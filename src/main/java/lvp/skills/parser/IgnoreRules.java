@@ -0,0 +1,84 @@
+package lvp.skills.parser;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+import lvp.skills.logging.Logger;
+
+// Excludes paths from watching, with the common subset of the .gitignore syntax: comments,
+// `!` to include again, a trailing `/` for directories only, and patterns with a `/` being
+// relative to the directory of their file. Patterns without `/` match the name at any depth.
+// Rules of a .gitignore in a subdirectory come after those of its parents, the last matching rule wins.
+public class IgnoreRules {
+    private record Rule(Path base, PathMatcher matcher, boolean nameOnly, boolean negated, boolean directoryOnly) {
+        boolean matches(Path path, boolean directory) {
+            if (directoryOnly && !directory) return false;
+            if (!path.startsWith(base) || path.equals(base)) return false;
+            return matcher.matches(nameOnly ? path.getFileName() : base.relativize(path));
+        }
+    }
+
+    private final List<Rule> rules;
+
+    private IgnoreRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    // Patterns relative to the working directory, e.g. from the command line
+    public static IgnoreRules of(List<String> patterns) {
+        return new IgnoreRules(List.of()).with(Path.of("").toAbsolutePath(), patterns);
+    }
+
+    // Adds the rules of the .gitignore in the directory, if there is one
+    public IgnoreRules withGitIgnore(Path dir) {
+        Path file = dir.resolve(".gitignore");
+        if (!Files.isRegularFile(file)) return this;
+        try {
+            return with(dir.toAbsolutePath().normalize(), Files.readAllLines(file));
+        } catch (IOException e) {
+            Logger.logError("Error reading " + file, e);
+            return this;
+        }
+    }
+
+    public boolean ignores(Path path, boolean directory) {
+        Path normalized = path.toAbsolutePath().normalize();
+        boolean ignored = false;
+        for (Rule rule : rules) {
+            if (rule.negated() == ignored && rule.matches(normalized, directory)) ignored = !rule.negated();
+        }
+        return ignored;
+    }
+
+    private IgnoreRules with(Path base, List<String> lines) {
+        List<Rule> combined = new ArrayList<>(rules);
+        for (String line : lines) {
+            String pattern = line.strip();
+            if (pattern.isEmpty() || pattern.startsWith("#")) continue;
+
+            boolean negated = pattern.startsWith("!");
+            if (negated) pattern = pattern.substring(1);
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) pattern = pattern.substring(0, pattern.length() - 1);
+            boolean nameOnly = !pattern.contains("/");
+            pattern = pattern.replaceFirst("^\\./", "").replaceFirst("^/", "");
+            if (pattern.isEmpty()) continue;
+
+            try {
+                combined.add(new Rule(base, FileSystems.getDefault().getPathMatcher("glob:" + pattern), nameOnly, negated, directoryOnly));
+                // A leading `**/` also matches in the base directory itself, which the glob does not
+                if (pattern.startsWith("**/") && pattern.length() > 3) {
+                    combined.add(new Rule(base, FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(3)), false, negated, directoryOnly));
+                }
+            } catch (IllegalArgumentException e) {
+                Logger.logError("Invalid ignore pattern: '" + line + "'");
+            }
+        }
+        return new IgnoreRules(List.copyOf(combined));
+    }
+}
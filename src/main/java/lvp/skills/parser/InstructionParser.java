@@ -1,8 +1,6 @@
 package lvp.skills.parser;
 
 import java.util.StringJoiner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Stream;
 import java.util.stream.Gatherer.Downstream;
 
@@ -10,9 +8,12 @@ import lvp.skills.IdGen;
 import lvp.skills.logging.Logger;
 
 import java.util.stream.Gatherer;
+import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Arrays;
+import java.util.stream.IntStream;
 
 public class InstructionParser {
 
@@ -20,33 +21,65 @@ public class InstructionParser {
     public sealed interface Instruction permits Command, Register, Pipe, Unknown {}
 
     public record Command(String name, String id, String content) implements Instruction {}
-    public record Register(String name, String call, boolean skipId) implements Instruction {}
+    public record Register(String name, String call, boolean skipId, boolean persistent) implements Instruction {}
     public record Pipe(List<CommandRef> commands) implements Instruction {}
     public record Unknown(String message) implements Instruction {}
 
     public record CommandRef(String name, String id) {}
 
-    // ---- Patterns ----
-    private static final Pattern SINGLE_LINE_COMMAND = Pattern.compile("^(\\w+)(?:\\[([^}]+)\\])?:\\s*(.+)$");
-    private static final Pattern BLOCK_START = Pattern.compile("^(\\w+)(?:\\[([^}]+)\\])?:\\s*$");
-    private static final Pattern SINGLE_LINE_COMMAND_CONTENTLESS = Pattern.compile("^(\\w+)(?:\\[([^}]+)\\])?\\s*$");
-    private static final Pattern REGISTER = Pattern.compile("^Register(?:\\[([^}]+)\\])?:\\s+(\\w+)\\s+(.+)$");
-    private static final Pattern PIPE_LINE = Pattern.compile("^\\s*\\|(.+)$");
-    private static final Pattern PIPE_ENTRY = Pattern.compile("^(\\w+)(?:\\[([^}]+)\\])?$");
+    private static IdMode idMode = IdMode.STABLE;
+
+    public static void setIdMode(IdMode mode) { idMode = mode; }
+
+    // ---- Id Derivation ----
+    // Commands without explicit id get an id from the source id, their name and content, so
+    // unchanged blocks keep their identity across runs. Repeated commands are numbered by
+    // occurrence. Pipe entries take the id of the instruction they continue into account.
+    private static class Ids {
+        final String sourceId;
+        final Map<String, Integer> occurrences = new HashMap<>();
+        String last = "";
+
+        Ids(String sourceId) {
+            this.sourceId = sourceId;
+        }
+
+        String command(String explicit, String name, String content) {
+            last = explicit != null ? explicit : derive(sourceId, name, content);
+            return last;
+        }
+
+        String pipeEntry(String explicit, int position, String name) {
+            last = explicit != null ? explicit : derive(sourceId, last, Integer.toString(position), name);
+            return last;
+        }
+
+        private String derive(String... parts) {
+            if (idMode == IdMode.RANDOM) return IdGen.generateID(10);
+            String id = IdGen.hashID(parts);
+            int occurrence = occurrences.merge(id, 1, Integer::sum) - 1;
+            return occurrence == 0 ? id : IdGen.hashID(id, Integer.toString(occurrence));
+        }
+    }
 
     // ---- Block Parsing State ----
     private static class BlockState {
+        final Ids ids;
         String name = null;
         String id = null;
         StringJoiner content = null;
         boolean inBlock = false;
 
+        BlockState(String sourceId) {
+            this.ids = new Ids(sourceId);
+        }
+
         void init(String name, String id) {
             this.name = name;
             this.id = id;
             this.content = new StringJoiner("\n");
             this.inBlock = true;
-            Logger.logDebug("Started block command: " + name + formatFlag(id));
+            Logger.logDebug(() -> "Started block command: " + name + formatFlag(id));
         }
 
         void append(String line) {
@@ -62,9 +95,9 @@ public class InstructionParser {
     }
 
     // ---- Main Entry Point ----
-    public static Stream<Instruction> parse(Stream<String> lines) {
+    public static Stream<Instruction> parse(Stream<String> lines, String sourceId) {
         return lines.gather(Gatherer.ofSequential(
-            BlockState::new,
+            () -> new BlockState(sourceId),
             (state, line, downstream) -> {
                 handleLine(state, line, downstream);
                 return true;
@@ -73,6 +106,14 @@ public class InstructionParser {
     }
 
     // ---- Dispatcher ----
+    // The forms are recognized in one pass over the line, in this order:
+    //   pipe               ^\s*\|(.+)$
+    //   register           ^Register(?:\[([^}]+)\])?:\s+(\w+)\s+(.+)$
+    //   single line        ^(\w+)(?:\[([^}]+)\])?:\s*(.+)$
+    //   without content    ^(\w+)(?:\[([^}]+)\])?\s*$
+    //   block start        ^(\w+)(?:\[([^}]+)\])?:\s*$
+    // The lexer accepts exactly what these patterns match. Like the greedy [^}]+, the id in
+    // brackets extends to the last ']' after which the rest of the line still fits.
     private static void handleLine(BlockState state, String line, Downstream<? super Instruction> out) {
         if (line.isBlank()) return;
         if (state.inBlock) {
@@ -80,36 +121,42 @@ public class InstructionParser {
             return;
         }
 
-        if (tryPipe(line, out)) return;
-        if (tryRegister(line, out)) return;
-        if (trySingleCommand(line, out)) return;
-        if (tryBlockStart(state, line)) return;
+        int start = skipSpaces(line, 0);
+        if (start < line.length() && line.charAt(start) == '|' && tryPipe(state.ids, line, start + 1, out)) return;
+        int nameEnd = wordEnd(line, 0);
+        if (nameEnd > 0) {
+            if (tryRegister(line, nameEnd, out)) return;
+            if (trySingleCommand(state.ids, line, nameEnd, out)) return;
+            if (tryBlockStart(state, line, nameEnd)) return;
+        }
         out.push(new Unknown(line));
         Logger.logError("Ignored unrecognized line: " + line);
     }
 
     // ---- Handlers ----
 
-    private static boolean tryPipe(String line, Downstream<? super Instruction>  out) {
-        Matcher matcher = PIPE_LINE.matcher(line);
-        if (!matcher.matches()) return false;
+    private static boolean tryPipe(Ids ids, String line, int from, Downstream<? super Instruction>  out) {
+        if (from == line.length() || hasLineTerminator(line, from)) return false;
 
-        List<CommandRef> commands = Arrays.stream(matcher.group(1).split("\\|"))
-            .map(String::strip)
-            .map(cmd -> {
-                Matcher m = PIPE_ENTRY.matcher(cmd);
-                if (!m.matches()) {
+        String[] entries = line.substring(from).split("\\|");
+        List<CommandRef> commands = IntStream.range(0, entries.length)
+            .mapToObj(i -> {
+                String cmd = entries[i].strip();
+                int nameEnd = wordEnd(cmd, 0);
+                boolean plain = nameEnd == cmd.length();
+                boolean withId = nameEnd > 0 && !plain && cmd.charAt(nameEnd) == '[' && cmd.endsWith("]") && isId(cmd, nameEnd + 1, cmd.length() - 1);
+                if (nameEnd == 0 || !plain && !withId) {
                     Logger.logError("Invalid pipe format: " + cmd);
                     return null;
                 }
-                String id = m.group(2) == null ? IdGen.generateID(10) : m.group(2);
-                return new CommandRef(m.group(1), id);
+                String name = cmd.substring(0, nameEnd);
+                return new CommandRef(name, ids.pipeEntry(withId ? cmd.substring(nameEnd + 1, cmd.length() - 1) : null, i, name));
             })
             .filter(Objects::nonNull)
             .toList();
 
         if (!commands.isEmpty()) {
-            Logger.logDebug("Parsed pipe: " + commands);
+            Logger.logDebug(() -> "Parsed pipe: " + commands);
             out.push(new Pipe(commands));
         } else {
             Logger.logError("Pipe instruction without valid commands: " + line);
@@ -118,44 +165,162 @@ public class InstructionParser {
         return true;
     }
 
-    private static boolean tryRegister(String line, Downstream<? super Instruction>  out) {
-        Matcher matcher = REGISTER.matcher(line);
-        if (!matcher.matches()) return false;
+    private static boolean tryRegister(String line, int nameEnd, Downstream<? super Instruction>  out) {
+        if (nameEnd != REGISTER.length() || !line.startsWith(REGISTER)) return false;
 
-        String skipIdFlag = matcher.group(1);
-        Logger.logDebug("Parsed register" + formatFlag(skipIdFlag) + ": " + matcher.group(2) + " -> " + matcher.group(3));
-        out.push(new Register(matcher.group(2), matcher.group(3), skipIdFlag != null && skipIdFlag.equals("skipId")));
-        return true;
+        for (int colon = lastColon(line, nameEnd); colon >= 0; colon = previousColon(line, nameEnd, colon)) {
+            // :\s+(\w+)\s+(.+)$
+            int serviceStart = skipSpaces(line, colon + 1);
+            int serviceEnd = wordEnd(line, serviceStart);
+            if (serviceStart == colon + 1 || serviceEnd == serviceStart) continue;
+            int callStart = content(line, serviceEnd, 1);
+            if (callStart < 0) continue;
+
+            String flags = colon == nameEnd ? null : line.substring(nameEnd + 1, colon - 1);
+            String name = line.substring(serviceStart, serviceEnd);
+            String call = line.substring(callStart);
+            List<String> flagList = flags == null ? List.of() : Arrays.stream(flags.split(",")).map(String::strip).toList();
+            Logger.logDebug(() -> "Parsed register" + formatFlag(flags) + ": " + name + " -> " + call);
+            out.push(new Register(name, call, flagList.contains("skipId"), flagList.contains("persistent")));
+            return true;
+        }
+        return false;
     }
 
-    private static boolean trySingleCommand(String line, Downstream<? super Instruction>  out) {
-        Matcher matcher = SINGLE_LINE_COMMAND.matcher(line).matches() ? SINGLE_LINE_COMMAND.matcher(line) : SINGLE_LINE_COMMAND_CONTENTLESS.matcher(line);
-        if (!matcher.matches()) return false;
-        String id = matcher.group(2) == null ? IdGen.generateID(10) : matcher.group(2);
-        Logger.logDebug("Parsed single-line command: " + matcher.group(1) + formatFlag(id));
-        out.push(new Command(matcher.group(1), id, matcher.groupCount() == 3 ? matcher.group(3) : ""));
+    private static boolean trySingleCommand(Ids ids, String line, int nameEnd, Downstream<? super Instruction>  out) {
+        String name = null, flags = null, content = null;
+        for (int colon = lastColon(line, nameEnd); colon >= 0; colon = previousColon(line, nameEnd, colon)) {
+            int contentStart = content(line, colon + 1, 0);
+            if (contentStart < 0) continue;
+            name = line.substring(0, nameEnd);
+            flags = colon == nameEnd ? null : line.substring(nameEnd + 1, colon - 1);
+            content = line.substring(contentStart);
+            break;
+        }
+        if (content == null) {
+            // Without content: the name, maybe an id, and nothing but spaces
+            int end = trimSpaces(line);
+            boolean plain = end == nameEnd;
+            boolean withId = !plain && line.charAt(nameEnd) == '[' && line.charAt(end - 1) == ']' && isId(line, nameEnd + 1, end - 1);
+            if (!plain && !withId) return false;
+            name = line.substring(0, nameEnd);
+            flags = withId ? line.substring(nameEnd + 1, end - 1) : null;
+            content = "";
+        }
+        String id = ids.command(flags, name, content);
+        String parsed = name;
+        Logger.logDebug(() -> "Parsed single-line command: " + parsed + formatFlag(id));
+        out.push(new Command(name, id, content));
         return true;
     }
 
-    private static boolean tryBlockStart(BlockState state, String line) {
-        Matcher matcher = BLOCK_START.matcher(line);
-        if (!matcher.matches()) return false;
+    private static boolean tryBlockStart(BlockState state, String line, int nameEnd) {
+        int end = trimSpaces(line);
+        if (line.charAt(end - 1) != ':') return false;
+        int colon = end - 1;
+        boolean plain = colon == nameEnd;
+        boolean withId = !plain && line.charAt(nameEnd) == '[' && line.charAt(colon - 1) == ']' && isId(line, nameEnd + 1, colon - 1);
+        if (!plain && !withId) return false;
 
-        String id = matcher.group(2) == null ? IdGen.generateID(10) : matcher.group(2);
-        state.init(matcher.group(1), id);
+        // without explicit id, the id is derived once the content is complete
+        state.init(line.substring(0, nameEnd), withId ? line.substring(nameEnd + 1, colon - 1) : null);
         return true;
     }
 
     private static void handleBlockContent(BlockState state, String line, Downstream<? super Instruction>  out) {
         if (line.equals("~~~")) {
-            Logger.logDebug("Parsed block command: " + state.name + formatFlag(state.id));
-            out.push(new Command(state.name, state.id, state.content.toString()));
+            String content = state.content.toString();
+            String id = state.ids.command(state.id, state.name, content);
+            String name = state.name;
+            Logger.logDebug(() -> "Parsed block command: " + name + formatFlag(id));
+            out.push(new Command(state.name, id, content));
             state.reset();
         } else {
             state.append(line);
         }
     }
 
+    // ---- Lexer ----
+
+    private static final String REGISTER = "Register";
+
+    // The colon after the name, or after the id in brackets, from the last candidate to the first
+    private static int lastColon(String line, int nameEnd) {
+        if (nameEnd < line.length() && line.charAt(nameEnd) == ':') return nameEnd;
+        return previousColon(line, nameEnd, idLimit(line, nameEnd) + 1);
+    }
+
+    private static int previousColon(String line, int nameEnd, int colon) {
+        if (colon <= nameEnd || nameEnd >= line.length() || line.charAt(nameEnd) != '[') return -1;
+        for (int c = colon - 1; c >= nameEnd + 3; c--) {
+            if (line.charAt(c) == ':' && line.charAt(c - 1) == ']') return c;
+        }
+        return -1;
+    }
+
+    // The id in brackets ends before the first '}', so the colon is at most right before it
+    private static int idLimit(String line, int nameEnd) {
+        int brace = line.indexOf('}', nameEnd);
+        return (brace < 0 ? line.length() : brace) - 1;
+    }
+
+    // [^}]+ between from and to
+    private static boolean isId(String line, int from, int to) {
+        if (from >= to) return false;
+        for (int i = from; i < to; i++) {
+            if (line.charAt(i) == '}') return false;
+        }
+        return true;
+    }
+
+    // Start of (.+)$ after at least minSpaces of \s, which are greedy but leave one character
+    // for the content; -1 if there is no content or it contains a line terminator
+    private static int content(String line, int from, int minSpaces) {
+        int start = skipSpaces(line, from);
+        if (start - from < minSpaces) return -1;
+        if (start == line.length()) {
+            if (start - from <= minSpaces) return -1;
+            start--;
+        }
+        return hasLineTerminator(line, start) ? -1 : start;
+    }
+
+    private static int wordEnd(String line, int from) {
+        int i = from;
+        while (i < line.length() && isWordChar(line.charAt(i))) i++;
+        return i;
+    }
+
+    private static int skipSpaces(String line, int from) {
+        int i = from;
+        while (i < line.length() && isSpace(line.charAt(i))) i++;
+        return i;
+    }
+
+    // End of the line without trailing \s
+    private static int trimSpaces(String line) {
+        int end = line.length();
+        while (end > 0 && isSpace(line.charAt(end - 1))) end--;
+        return end;
+    }
+
+    private static boolean hasLineTerminator(String line, int from) {
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') return true;
+        }
+        return false;
+    }
+
+    // \w and \s of java.util.regex
+    private static boolean isWordChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
     private static String formatFlag(String id) {
         return id != null ? "{" + id + "}" : "";
     }
@@ -1,15 +1,22 @@
 package lvp.skills.parser;
 
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import lvp.skills.ParsingTools;
 import lvp.skills.logging.Logger;
@@ -17,9 +24,21 @@ import lvp.skills.logging.Logger;
 public class PathParser {
     private PathParser() {}
 
-    public static Optional<List<Path>> parse(String file) {
-        if (file.contains("*") || file.contains("?") || file.contains("["))
-            return resolveGlob(file);
+    public static boolean isGlob(String file) {
+        return file.contains("*") || file.contains("?") || file.contains("[");
+    }
+
+    // Globs are relative to the working directory
+    public static boolean matches(String glob, Path file) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob.replaceFirst("^\\./", ""));
+        Path absolute = file.toAbsolutePath().normalize();
+        return matcher.matches(absolute) || matcher.matches(Path.of("").toAbsolutePath().relativize(absolute));
+    }
+
+    // Files matched by a glob are left out if the ignore rules exclude them, named files never are
+    public static Optional<List<Path>> parse(String file, IgnoreRules ignore) {
+        if (isGlob(file))
+            return resolveGlob(file, ignore);
         
         Optional<Path> path = ParsingTools.tryPath(file);
         if (path.isEmpty()) {
@@ -42,7 +61,7 @@ public class PathParser {
         return Optional.of(List.of(normalizedPath.toAbsolutePath()));
     }
 
-    private static Optional<List<Path>> resolveGlob(String file) {
+    private static Optional<List<Path>> resolveGlob(String file, IgnoreRules ignore) {
         int[] indices = {
             file.indexOf('*'),
             file.indexOf('?'),
@@ -66,27 +85,77 @@ public class PathParser {
         }
 
         Logger.logDebug("Valid Part: '" + validPart + "' -> Directory: '" + dir.toAbsolutePath() + "'");
-        return walkDir(dir, file);
+        return walkDir(dir, file, ignore);
     }
 
-    private static Optional<List<Path>> walkDir(Path dir, String globPart) {
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
-            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + globPart);
-            List<Path> matchingFiles = new ArrayList<>();
-            for (Path entry : stream) {
-                Logger.logDebug("Checking file: " + entry);
-                if (Files.isDirectory(entry)) {
-                    matchingFiles.addAll(walkDir(entry, globPart).orElse(List.of()));
-                }
-                if (Files.isRegularFile(entry) && matcher.matches(entry)) {
-                    Logger.logDebug("Match found.");
-                    matchingFiles.add(entry.toAbsolutePath());
-                }
-            }
-            return matchingFiles.isEmpty() ? Optional.empty() : Optional.of(matchingFiles);
+    // The entries of the directory are searched in parallel, which pays off for large trees. Like the
+    // watcher, the walk follows links and leaves out what the ignore rules and .gitignore files exclude.
+    private static Optional<List<Path>> walkDir(Path dir, String glob, IgnoreRules ignore) {
+        List<Path> entries;
+        try (Stream<Path> stream = Files.list(dir)) {
+            entries = stream.toList();
         } catch (IOException e) {
             Logger.logError("Invalid Path: '" + dir + "'", e);
             return Optional.empty();
         }
+
+        IgnoreRules rules = gitIgnores(dir.toAbsolutePath().normalize(), ignore);
+        List<Path> matchingFiles = entries.parallelStream()
+            .flatMap(entry -> find(entry, glob, rules).stream())
+            .map(Path::toAbsolutePath)
+            .sorted()
+            .toList();
+        Logger.logDebug(matchingFiles.size() + " files match '" + glob + "'");
+        return matchingFiles.isEmpty() ? Optional.empty() : Optional.of(matchingFiles);
+    }
+
+    private static List<Path> find(Path start, String glob, IgnoreRules inherited) {
+        List<Path> files = new ArrayList<>();
+        Deque<IgnoreRules> rules = new ArrayDeque<>(List.of(inherited));
+        try {
+            Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (rules.peek().ignores(dir, true)) return FileVisitResult.SKIP_SUBTREE;
+                    rules.push(rules.peek().withGitIgnore(dir));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && matches(glob, file) && !rules.peek().ignores(file, false)) files.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    Logger.logDebug("Cannot read " + file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    rules.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            Logger.logError("Invalid Path: '" + start + "'", e);
+        }
+        return files;
+    }
+
+    // The rules of the .gitignore files from the working directory down to the directory
+    private static IgnoreRules gitIgnores(Path dir, IgnoreRules ignore) {
+        Path root = Path.of("").toAbsolutePath();
+        if (!dir.startsWith(root)) return ignore.withGitIgnore(dir);
+        IgnoreRules rules = ignore.withGitIgnore(root);
+        Path current = root;
+        for (Path name : root.relativize(dir)) {
+            if (name.toString().isEmpty()) continue;
+            current = current.resolve(name);
+            rules = rules.withGitIgnore(current);
+        }
+        return rules;
     }
 }
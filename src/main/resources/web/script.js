@@ -64,101 +64,244 @@ function splitEventMessage(message) {
   return [...firstThree, rest];
 }
 
-function setUp() {
-  if (window.EventSource) {
-    const source = new EventSource(`/events`);
-
-    source.onmessage = function (event) {
-      const [action, sourceId, id, base64Data] = splitEventMessage(event.data);
-      const data = new TextDecoder("utf-8").decode(Uint8Array.from(atob(base64Data), c => c.charCodeAt(0)));
-      
-      debugLog(`Action: ${action}\nSourceId: ${sourceId}\nId: ${id}\nData: ${data}`);
-
-      let subView = document.getElementById(sourceId);
-      if (!subView) {
-        const subViewContainer = document.createElement("div");
-        subViewContainer.innerHTML = `<span class="section-marker">${new TextDecoder("utf-8").decode(Uint8Array.from(atob(sourceId), c => c.charCodeAt(0)))}</span>`;
-        subViewContainer.classList.add("section");
-        subViewContainer.id = `subViewContainer-${sourceId}`;
-        subView = document.createElement("div");
-        subView.id = sourceId;
-        subViewContainer.appendChild(subView);
-        clerk[sourceId] = {};
-        document.getElementById("events").appendChild(subViewContainer);
-      }
+// Order of lvp.sinks.server_sink.SSEType, used by the binary WebSocket transport
+const ACTIONS = ["WRITE", "CALL", "SCRIPT", "CLEAR", "CSS", "LOG", "DOT", "INSERT", "REMOVE"];
+const decoder = new TextDecoder("utf-8");
+let lastEventId = "";
 
-      switch (action) {
-        case "CALL": {
-          Function(data).apply(); // https://www.educative.io/answers/eval-vs-function-in-javascript
-          break;
-        }
-        case "SCRIPT": {
-          const newElement = document.createElement("script");
-          newElement.innerHTML = data;
-          newElement.id = id;
-          newElement.classList.add(sourceId);
-          document.body.appendChild(newElement);
-          break;
-        }
-        case "WRITE": {
-          const newElement = document.createElement("div");
-          newElement.innerHTML = data;
-          newElement.id = id;
-          subView.appendChild(newElement);
-          break;
-        }
-        case "CSS": {
-          const newElement = document.createElement("style");
-          newElement.innerHTML = data;
-          newElement.id = id;
-          newElement.classList.add(sourceId);
-          document.head.appendChild(newElement);
-          break;
-        }
-        case "CLEAR": {
-          scrollPosition = window.scrollY;
-          clear(sourceId, id === "-1" || id === "all" || id === "global");
-          break;
-        }
-        case "LOG": {
-          const newElement = document.createElement("div");
-          newElement.innerText = data;
-          newElement.classList.add(sourceId);
-          const errors = document.getElementById("errors");
-          errors.appendChild(newElement);
-          errors.parentNode.style.display = "";
-          break;
-        }
-        case "DOT": {
-          const newElement = document.createElement("div");
-          newElement.id = id;
-          subView.appendChild(newElement);
-          Viz.instance().then(function(viz) {
-              newElement.appendChild(viz.renderSVGElement(data));
-          });
-          break;
-        }
-        default:
-          errorLog("Unknown Action");
-          break;
-      }
+function getSubView(sourceId) {
+  let subView = document.getElementById(sourceId);
+  if (!subView) {
+    const subViewContainer = document.createElement("div");
+    subViewContainer.innerHTML = `<span class="section-marker">${decoder.decode(Uint8Array.from(atob(sourceId), c => c.charCodeAt(0)))}</span>`;
+    subViewContainer.classList.add("section");
+    subViewContainer.id = `subViewContainer-${sourceId}`;
+    subView = document.createElement("div");
+    subView.id = sourceId;
+    subViewContainer.appendChild(subView);
+    clerk[sourceId] = {};
+    document.getElementById("events").appendChild(subViewContainer);
+  }
+  return subView;
+}
 
-      if (scrollPosition > 0) {
-        window.scrollTo(0, scrollPosition);
-      }
-    };
+// Element of a WRITE or DOT event
+function createElement(kind, id, data) {
+  const newElement = document.createElement("div");
+  newElement.id = id;
+  if (kind === "DOT") {
+    Viz.instance().then(function(viz) {
+        newElement.appendChild(viz.renderSVGElement(data));
+    });
+  } else {
+    newElement.innerHTML = data;
+  }
+  return newElement;
+}
 
-    source.onerror = function (error) {
-      console.error("EventSource failed:", error);
-      // source.close(); // uncommented to enable recovery
-    };
+function childById(subView, id) {
+  if (!id) return undefined;
+  const element = document.getElementById(id);
+  if (!element || element.parentNode === subView) return element ?? undefined;
+  return Array.from(subView.children).find(child => child.id === id); // the id is also used elsewhere
+}
 
-  } else {
+// An element with the same id is replaced in place, otherwise the element goes before the anchor or to the end
+function place(subView, element, anchor) {
+  const existing = childById(subView, element.id);
+  if (existing) existing.replaceWith(element);
+  else subView.insertBefore(element, childById(subView, anchor) ?? null);
+}
+
+function remove(subView, sourceId, kind, id) {
+  if (kind === "SOURCE") {
+    clear(sourceId, false);
+    document.getElementById(`subViewContainer-${sourceId}`)?.remove();
+    delete clerk[sourceId];
+    return;
+  }
+  if (kind === "LOG") {
+    const errors = document.getElementById("errors");
+    errors.querySelectorAll(`.${CSS.escape(sourceId)}`).forEach(el => el.remove());
+    if (!errors.hasChildNodes()) errors.parentNode.style.display = "none";
+    return;
+  }
+  const element = kind === "SCRIPT" || kind === "CSS"
+    ? Array.from(document.querySelectorAll(kind === "CSS" ? "style" : "script")).find(el => el.id === id && el.classList.contains(sourceId))
+    : childById(subView, id);
+  element?.remove();
+}
+
+function splitLines(data) {
+  const first = data.indexOf("\n");
+  const second = data.indexOf("\n", first + 1);
+  return [data.substring(0, first), data.substring(first + 1, second), data.substring(second + 1)];
+}
+
+function handleEvent(action, sourceId, id, data) {
+  debugLog(`Action: ${action}\nSourceId: ${sourceId}\nId: ${id}\nData: ${data}`);
+
+  const subView = getSubView(sourceId);
+
+  switch (action) {
+    case "CALL": {
+      Function(data).apply(); // https://www.educative.io/answers/eval-vs-function-in-javascript
+      break;
+    }
+    case "SCRIPT": {
+      const newElement = document.createElement("script");
+      newElement.innerHTML = data;
+      newElement.id = id;
+      newElement.classList.add(sourceId);
+      document.body.appendChild(newElement);
+      break;
+    }
+    case "WRITE":
+    case "DOT": {
+      place(subView, createElement(action, id, data), "");
+      break;
+    }
+    case "INSERT": {
+      const [kind, anchor, content] = splitLines(data);
+      place(subView, createElement(kind, id, content), anchor);
+      break;
+    }
+    case "REMOVE": {
+      remove(subView, sourceId, data, id);
+      break;
+    }
+    case "CSS": {
+      const newElement = document.createElement("style");
+      newElement.innerHTML = data;
+      newElement.id = id;
+      newElement.classList.add(sourceId);
+      document.head.appendChild(newElement);
+      break;
+    }
+    case "CLEAR": {
+      scrollPosition = window.scrollY;
+      clear(sourceId, id === "-1" || id === "all" || id === "global");
+      break;
+    }
+    case "LOG": {
+      const newElement = document.createElement("div");
+      newElement.innerText = data;
+      newElement.classList.add(sourceId);
+      const errors = document.getElementById("errors");
+      errors.appendChild(newElement);
+      errors.parentNode.style.display = "";
+      break;
+    }
+    default:
+      errorLog("Unknown Action");
+      break;
+  }
+
+  if (scrollPosition > 0) {
+    window.scrollTo(0, scrollPosition);
+  }
+}
+
+function connectSSE() {
+  if (!window.EventSource) {
     document.getElementById("events").innerHTML =
       "Your browser does not support Server-Sent Events.";
+    return;
+  }
+
+  const query = lastEventId ? `?last=${encodeURIComponent(lastEventId)}` : "";
+  const source = new EventSource(`/events${query}`);
+
+  source.onmessage = function (event) {
+    const [action, sourceId, id, base64Data] = splitEventMessage(event.data);
+    handleEvent(action, sourceId, id, decoder.decode(Uint8Array.from(atob(base64Data), c => c.charCodeAt(0))));
+  };
+
+  source.onerror = function (error) {
+    console.error("EventSource failed:", error);
+    // source.close(); // uncommented to enable recovery
+  };
+}
+
+// A binary message holds one or more events, see lvp.sinks.server_sink.WebSocketClient
+function readBinaryEvents(buffer) {
+  const view = new DataView(buffer);
+  const bytes = new Uint8Array(buffer);
+  let offset = 0;
+
+  const readString = (length) => {
+    const s = decoder.decode(bytes.subarray(offset, offset + length));
+    offset += length;
+    return s;
+  };
+  const readShortString = () => {
+    const length = view.getUint16(offset);
+    offset += 2;
+    return readString(length);
+  };
+
+  while (offset < bytes.length) {
+    const action = ACTIONS[view.getUint8(offset)];
+    offset += 1;
+    const eventId = readShortString();
+    const sourceId = readShortString();
+    const id = readShortString();
+    const length = view.getUint32(offset);
+    offset += 4;
+    const data = readString(length);
+
+    if (eventId) lastEventId = eventId;
+    handleEvent(action, sourceId, id, data);
   }
 }
 
+function connectWebSocket(port) {
+  const query = lastEventId ? `?last=${encodeURIComponent(lastEventId)}` : "";
+  const socket = new WebSocket(`ws://${location.hostname}:${port}/${query}`);
+  socket.binaryType = "arraybuffer";
+  let opened = false;
+
+  socket.onopen = () => { opened = true; };
+  socket.onmessage = (message) => readBinaryEvents(message.data);
+  socket.onclose = () => {
+    if (opened) {
+      setTimeout(() => connectWebSocket(port), 1000); // resumes from lastEventId
+    } else {
+      debugLog("WebSocket not available, falling back to Server-Sent Events");
+      connectSSE();
+    }
+  };
+}
+
+// Each element is parsed on its own like a live WRITE, then all are inserted at once
+function insertElements(subView, elements) {
+  const fragment = document.createDocumentFragment();
+  for (const element of elements) fragment.appendChild(createElement("WRITE", element.id, element.html));
+  subView.appendChild(fragment);
+}
+
+// The current view in one response, consecutive WRITEs are already folded into lists of elements
+function loadSnapshot() {
+  return fetch('snapshot')
+    .then(response => response.json())
+    .then(snapshot => {
+      for (const event of snapshot.events) {
+        if (event.type === "HTML") insertElements(getSubView(event.sourceId), event.elements);
+        else handleEvent(event.type, event.sourceId, event.id, event.data);
+      }
+      lastEventId = snapshot.eventId;
+    })
+    .catch(error => console.error("Snapshot failed, receiving the full history instead:", error));
+}
+
+function setUp() {
+  loadSnapshot()
+    .then(() => fetch('transport'))
+    .then(response => response.json())
+    .then(transport => transport.websocket > 0 && window.WebSocket ? connectWebSocket(transport.websocket) : connectSSE())
+    .catch(() => connectSSE());
+}
+
 document.addEventListener("DOMContentLoaded", () => {
   const errorContainer = document.getElementsByClassName("error-container")[0];
     errorContainer.addEventListener("click", (event) => {
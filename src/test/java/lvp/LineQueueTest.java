@@ -0,0 +1,55 @@
+package lvp;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+// Plain test class without a test framework, Surefire runs its public test methods.
+// The program that never ends its output is this class, started in a JVM of its own.
+public class LineQueueTest {
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("first");
+        System.out.flush();
+        Thread.sleep(60_000);
+    }
+
+    public void testClosingMidReadEndsTheReader() throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), LineQueueTest.class.getName())
+            .redirectErrorStream(true)
+            .start();
+        CountDownLatch released = new CountDownLatch(1);
+        try (BufferedReader reader = process.inputReader(StandardCharsets.UTF_8)) {
+            Stream<String> lines = LineQueue.of(reader.lines().onClose(released::countDown), 4, () -> RunScheduler.Job.kill(process));
+            Iterator<String> it = lines.iterator();
+            check(it.hasNext() && it.next().equals("first"), "expected the first line of the program");
+            // The reader is blocked in readLine now, the program prints nothing more
+            lines.close();
+            check(released.await(10, TimeUnit.SECONDS), "the reader is still blocked after closing");
+            check(process.waitFor(10, TimeUnit.SECONDS), "the program is still running after closing");
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    public void testReadingToTheEndDoesNotStop() throws Exception {
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        CountDownLatch released = new CountDownLatch(1);
+        Stream<String> lines = LineQueue.of(Stream.of("a", "", "b").onClose(released::countDown), 1, () -> stopped.set(true));
+        check(lines.toList().equals(List.of("a", "", "b")), "expected all lines in order");
+        lines.close();
+        check(released.await(10, TimeUnit.SECONDS), "the reader did not end with the output");
+        check(!stopped.get(), "stop ran although the output was read to the end");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,38 @@
+package lvp;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+// Plain test class without a test framework, Surefire runs its public test methods.
+// With a window, the instructions are planned ahead of their output. A slow service at the
+// start holds the output back while the Register after it is read, and the instructions in
+// between still have to see the services as they were before it.
+public class ProcessorTest {
+
+    public void testRegisterDoesNotChangeInstructionsBeforeIt() {
+        Processor processor = new Processor(new ProcessorOptions(1, 8, ProcessorOptions.DEFAULT_LINE_QUEUE, 0));
+        List<String> captured = new CopyOnWriteArrayList<>();
+        processor.services.put("Slow", (_, content) -> {
+            try { Thread.sleep(500); } catch (InterruptedException _) { Thread.currentThread().interrupt(); }
+            return content;
+        });
+        processor.channel.put("Capture", (_, content) -> captured.add(content));
+        try {
+            processor.process(null, Stream.of(
+                "Slow: a",
+                "Text: b",
+                "| Capture",
+                "Slow: c",
+                "| Text | Capture",
+                "Register[skipId]: Text echo replaced"), "source");
+        } finally {
+            processor.stop();
+        }
+        check(captured.equals(List.of("b", "c")), "expected [b, c] but captured " + captured);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,85 @@
+package lvp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import lvp.Processor.MetaInformation;
+
+// Plain test class without a test framework, Surefire runs its public test methods.
+// Counts the calls of the wrapped service, a hit does not call it.
+public class ServiceCacheTest {
+
+    public void testHitWithRandomIds() {
+        ServiceCache cache = new ServiceCache(ServiceCache.DEFAULT_SIZE);
+        cache.pure("Render");
+        cache.idDependent("Render");
+        AtomicInteger calls = new AtomicInteger();
+        BiFunction<MetaInformation, String, String> render = cache.wrap("Render", (meta, content) -> {
+            calls.incrementAndGet();
+            return "<div id=\"render" + meta.id() + "\">" + content + "</div>";
+        });
+
+        String first = render.apply(new MetaInformation("source", "Xy3kQ9a2Lm", true), "forward 10");
+        String second = render.apply(new MetaInformation("source", "P0c7Zr1eTb", true), "forward 10");
+        check(calls.get() == 1, "expected a hit for another id, the service was called " + calls.get() + " times");
+        check(first.equals("<div id=\"renderXy3kQ9a2Lm\">forward 10</div>"), "unexpected first result " + first);
+        check(second.equals("<div id=\"renderP0c7Zr1eTb\">forward 10</div>"), "the hit does not carry its own id: " + second);
+    }
+
+    public void testHitWithoutIdInResult() {
+        ServiceCache cache = new ServiceCache(ServiceCache.DEFAULT_SIZE);
+        cache.pure("Upper");
+        AtomicInteger calls = new AtomicInteger();
+        BiFunction<MetaInformation, String, String> upper = cache.wrap("Upper", (_, content) -> {
+            calls.incrementAndGet();
+            return content.toUpperCase();
+        });
+
+        upper.apply(new MetaInformation("source", "a", true), "text");
+        String result = upper.apply(new MetaInformation("source", "b", false), "text");
+        check(calls.get() == 1, "expected a hit for another id, the service was called " + calls.get() + " times");
+        check(result.equals("TEXT"), "unexpected result " + result);
+    }
+
+    public void testSameSizeChangeOfFile() throws IOException {
+        Path file = Files.createTempFile("lvp-cache", ".txt");
+        try {
+            ServiceCache cache = new ServiceCache(ServiceCache.DEFAULT_SIZE);
+            cache.fileDependent("Read", content -> List.of(Path.of(content)));
+            AtomicInteger calls = new AtomicInteger();
+            BiFunction<MetaInformation, String, String> read = cache.wrap("Read", (_, content) -> {
+                calls.incrementAndGet();
+                try {
+                    return Files.readString(Path.of(content));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            MetaInformation meta = new MetaInformation("source", "id", true);
+
+            Files.writeString(file, "aaaa");
+            FileTime modified = Files.getLastModifiedTime(file);
+            check(read.apply(meta, file.toString()).equals("aaaa"), "unexpected first read");
+            check(read.apply(meta, file.toString()).equals("aaaa") && calls.get() == 1, "expected a hit for the unchanged file");
+
+            // Same size and modification time, as with two saves within the resolution of the file system
+            Files.writeString(file, "bbbb");
+            Files.setLastModifiedTime(file, modified);
+            String changed = read.apply(meta, file.toString());
+            check(changed.equals("bbbb"), "the cache returned " + changed + " for the changed file");
+            check(calls.get() == 2, "expected a miss for the changed file, the service was called " + calls.get() + " times");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,103 @@
+package lvp.sinks.server_sink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Plain test class without a test framework, Surefire runs its public test methods.
+// Holds many SSE streams open and sends interactions at the same time. With a request
+// thread per stream, the interactions would queue behind the streams; on virtual
+// threads every request has to be answered within the bound while all streams stay open.
+public class InteractionLoadTest {
+    static final int STREAMS = 200;
+    static final int INTERACTIONS = 50;
+    static final Duration BOUND = Duration.ofSeconds(2);
+    static final Duration LIMIT = Duration.ofSeconds(10);
+
+    public void testInteractionsAreAnsweredWhileStreamsAreOpen() throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) { port = free.getLocalPort(); }
+        Server server = new Server(new ServerOptions(port, ServerOptions.DEFAULT_EVENT_MEMORY, ServerOptions.DEFAULT_CLIENT_QUEUE, OverflowPolicy.RESYNC,
+            ServerOptions.DEFAULT_HEARTBEAT, ServerOptions.DEFAULT_BATCH_WINDOW, ServerOptions.DEFAULT_BATCH_BYTES, 0, 0));
+        Path file = Files.createTempFile("lvp-interact", ".java");
+        List<Socket> streams = new ArrayList<>();
+        try {
+            Files.writeString(file, "int x = 0; // label\n");
+            for (int i = 0; i < STREAMS; i++) streams.add(connect(port));
+            awaitClients(server, STREAMS);
+
+            HttpClient client = HttpClient.newBuilder().executor(Runnable::run).build();
+            String body = encode(file.toString()) + ":" + encode("// label") + ":single:" + encode("int x = 1;");
+            List<CompletableFuture<Long>> requests = new ArrayList<>();
+            for (int i = 0; i < INTERACTIONS; i++) {
+                HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/interact"))
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .timeout(LIMIT)
+                    .build();
+                requests.add(CompletableFuture.supplyAsync(() -> post(client, request), Thread.ofVirtual()::start));
+            }
+
+            for (CompletableFuture<Long> request : requests) {
+                long ms = request.join();
+                check(ms >= 0, "interaction failed");
+                check(ms < BOUND.toMillis(), "interaction took " + ms + " ms");
+            }
+            check(server.webClients.size() == STREAMS, "only " + server.webClients.size() + " of " + STREAMS + " streams still open");
+            for (Socket stream : streams) check(!stream.isClosed() && !stream.isInputShutdown(), "a stream was closed");
+        } finally {
+            server.stop();
+            for (Socket stream : streams) stream.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Milliseconds until the response, -1 if it failed
+    private static long post(HttpClient client, HttpRequest request) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200 ? (System.nanoTime() - start) / 1_000_000 : -1;
+        } catch (IOException | InterruptedException _) {
+            return -1;
+        }
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("localhost", port));
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /events HTTP/1.1\r\nHost: localhost:" + port + "\r\nAccept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    private static void awaitClients(Server server, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + LIMIT.toNanos();
+        while (server.webClients.size() < count) {
+            check(System.nanoTime() < deadline, "only " + server.webClients.size() + " of " + count + " streams connected");
+            Thread.sleep(10);
+        }
+    }
+
+    private static String encode(String s) {
+        return Base64.getEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
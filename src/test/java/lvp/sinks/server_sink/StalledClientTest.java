@@ -0,0 +1,114 @@
+package lvp.sinks.server_sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Plain test class without a test framework, Surefire runs its public test methods.
+// Opens many raw SSE connections, one of which never reads, and checks that the others
+// still receive every event in time and that publishing never waits for the stalled one.
+public class StalledClientTest {
+    static final int CLIENTS = 20;
+    static final int EVENTS = 128;
+    static final int EVENT_SIZE = 64 * 1024; // together enough to fill the socket buffers of the stalled client
+    static final Duration LIMIT = Duration.ofSeconds(10);
+
+    public void testStalledClientDoesNotBlockOthers() throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) { port = free.getLocalPort(); }
+        Server server = new Server(new ServerOptions(port, ServerOptions.DEFAULT_EVENT_MEMORY, ServerOptions.DEFAULT_CLIENT_QUEUE, OverflowPolicy.RESYNC,
+            ServerOptions.DEFAULT_HEARTBEAT, ServerOptions.DEFAULT_BATCH_WINDOW, ServerOptions.DEFAULT_BATCH_BYTES, 0, 0));
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            Socket stalled = new Socket();
+            stalled.setReceiveBufferSize(1024);
+            sockets.add(connect(stalled, port));
+
+            CountDownLatch done = new CountDownLatch(CLIENTS - 1);
+            for (int i = 1; i < CLIENTS; i++) {
+                Socket socket = connect(new Socket(), port);
+                sockets.add(socket);
+                Thread.ofPlatform().daemon().start(() -> awaitMarker(socket, done));
+            }
+            awaitClients(server, CLIENTS);
+
+            String data = "x".repeat(EVENT_SIZE);
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) server.sendServerEvent(SSEType.WRITE, data, "e" + i, "test");
+            server.sendServerEvent(SSEType.WRITE, "marker", "done", "test");
+            long publishMs = (System.nanoTime() - start) / 1_000_000;
+
+            check(publishMs < LIMIT.toMillis(), "publishing took " + publishMs + " ms");
+            check(done.await(LIMIT.toMillis(), TimeUnit.MILLISECONDS),
+                done.getCount() + " of " + (CLIENTS - 1) + " clients did not receive all events within " + LIMIT.toSeconds() + " s");
+            // Otherwise the socket buffers took all events and nothing was tested. Each client was
+            // sent the events, the marker and the clear that starts its snapshot.
+            String all = " sent=" + (EVENTS + 2) + " ";
+            check(server.webClients.stream().anyMatch(client -> !client.stats().contains(all)), "no client stalled");
+        } finally {
+            server.stop();
+            for (Socket socket : sockets) socket.close();
+        }
+    }
+
+    private static Socket connect(Socket socket, int port) throws IOException {
+        socket.connect(new InetSocketAddress("localhost", port));
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /events HTTP/1.1\r\nHost: localhost:" + port + "\r\nAccept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    private static void awaitClients(Server server, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + LIMIT.toNanos();
+        while (server.webClients.size() < count) {
+            check(System.nanoTime() < deadline, "only " + server.webClients.size() + " of " + count + " clients connected");
+            Thread.sleep(10);
+        }
+    }
+
+    // Reads the chunked response until the event with id "done" arrives. On a platform thread,
+    // so the readers keep running even if blocked writers occupy all carriers of virtual threads.
+    private static void awaitMarker(Socket socket, CountDownLatch done) {
+        try {
+            InputStream in = socket.getInputStream();
+            while (!readLine(in).isEmpty()) { } // response headers
+            String tail = "";
+            while (true) {
+                int size = Integer.parseInt(readLine(in).strip(), 16);
+                if (size == 0) return;
+                String chunk = new String(in.readNBytes(size), StandardCharsets.US_ASCII);
+                readLine(in);
+                tail = tail + chunk;
+                if (tail.contains(":test:done:")) {
+                    done.countDown();
+                    return;
+                }
+                tail = tail.substring(Math.max(0, tail.length() - 16));
+            }
+        } catch (IOException | NumberFormatException _) { }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) != '\n'; ) {
+            if (b == -1) throw new IOException("Connection closed");
+            if (b != '\r') line.write(b);
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,42 @@
+package lvp.skills.parser;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// Plain test class without a test framework, Surefire runs its public test methods.
+// Paths are relative to the working directory, the base of rules from the command line.
+public class IgnoreRulesTest {
+
+    public void testLeadingDoubleStarMatchesAtBase() {
+        IgnoreRules rules = IgnoreRules.of(List.of("**/build"));
+        check(rules.ignores(Path.of("build"), true), "**/build should match build in the base directory");
+        check(rules.ignores(Path.of("src/build"), true), "**/build should match src/build");
+        check(rules.ignores(Path.of("a/b/build"), false), "**/build should match a/b/build");
+        check(!rules.ignores(Path.of("builder"), true), "**/build should not match builder");
+    }
+
+    public void testLeadingDoubleStarForDirectoriesOnly() {
+        IgnoreRules rules = IgnoreRules.of(List.of("**/out/"));
+        check(rules.ignores(Path.of("out"), true), "**/out/ should match the directory out in the base directory");
+        check(!rules.ignores(Path.of("out"), false), "**/out/ should not match a file named out");
+    }
+
+    public void testNegatedLeadingDoubleStar() {
+        IgnoreRules rules = IgnoreRules.of(List.of("*.log", "!**/keep.log"));
+        check(rules.ignores(Path.of("a.log"), false), "*.log should match a.log");
+        check(!rules.ignores(Path.of("keep.log"), false), "!**/keep.log should include keep.log in the base directory again");
+        check(!rules.ignores(Path.of("x/keep.log"), false), "!**/keep.log should include x/keep.log again");
+    }
+
+    public void testSlashAnchorsToBase() {
+        IgnoreRules rules = IgnoreRules.of(List.of("/target", "docs/*.md"));
+        check(rules.ignores(Path.of("target"), true), "/target should match target in the base directory");
+        check(!rules.ignores(Path.of("sub/target"), true), "/target should not match sub/target");
+        check(rules.ignores(Path.of("docs/a.md"), false), "docs/*.md should match docs/a.md");
+        check(!rules.ignores(Path.of("x/docs/a.md"), false), "docs/*.md should not match x/docs/a.md");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,129 @@
+package lvp.skills.parser;
+
+import java.util.List;
+
+import lvp.skills.parser.InstructionParser.Instruction;
+
+// Plain test class without a test framework, Surefire runs its public test methods.
+// The lexer of InstructionParser has to accept exactly what the regular expressions of
+// RegexInstructionParser match, these are the inputs where the two are easiest to tell apart.
+public class InstructionParserTest {
+    static final List<List<String>> CASES = List.of(
+        // single line commands, trailing whitespace before and after the content
+        List.of("Markdown: hello"),
+        List.of("Markdown:hello"),
+        List.of("Markdown:   \t text  "),
+        List.of("Markdown: a: b: c"),
+        List.of("Markdown : x"),
+        List.of(" Markdown: x"),
+        List.of("Mär: x"),
+        List.of("Markdown: a", "Markdown: a", "Markdown: a"),
+
+        // ids in brackets, the greedy [^}]+ takes everything up to the last fitting ']'
+        List.of("Html[a]: x"),
+        List.of("Html[a]b]: x"),
+        List.of("Html[a]: b]: c"),
+        List.of("Html[a]]: x"),
+        List.of("Html[a b, c]: x"),
+        List.of("Html[a}b]: x"),
+        List.of("Html[]: x"),
+        List.of("Html[: x"),
+        List.of("Html[a]x: y"),
+        List.of("Html[[a]]: x"),
+
+        // without content
+        List.of("Clear"),
+        List.of("Clear   "),
+        List.of("Clear\t"),
+        List.of("Clear[x]"),
+        List.of("Clear[x]  "),
+        List.of("Clear[x]]"),
+        List.of("Clear[x] y"),
+        List.of("Clear y"),
+
+        // line terminators, '.' stops at them and '$' matches before a final one
+        List.of("Markdown: text\r"),
+        List.of("Markdown: a\rb"),
+        List.of("Markdown: a\r\n"),
+        List.of("Markdown: a\n"),
+        List.of("Markdown: a\u2028"),
+        List.of("Markdown: a\u2028b"),
+        List.of("Markdown: a\u2029"),
+        List.of("Markdown: a\u0085"),
+        List.of("Markdown: a\u000B"),
+        List.of("Markdown:\r"),
+        List.of("Markdown:\u2028"),
+        List.of("Clear\r"),
+        List.of("Clear\u2028"),
+        List.of("Html[a\u2028]: x"),
+        List.of("| Text\r"),
+        List.of("Register: Svc cmd\r"),
+
+        // blocks
+        List.of("Markdown:", "# Title", "", "text", "~~~"),
+        List.of("Markdown:   ", "a", "~~~"),
+        List.of("Html[id]:", "<b>x</b>", "~~~"),
+        List.of("Html[a]b]:", "x", "~~~"),
+        List.of("Markdown:", "Html: inside", "| Text", "~~~ ", " ~~~", "~~~"),
+        List.of("Markdown:", "not closed"),
+        List.of("Markdown:", "a", "~~~", "Markdown:", "a", "~~~"),
+
+        // register
+        List.of("Register: Svc python3 x.py"),
+        List.of("Register[skipId]: Svc cmd"),
+        List.of("Register[persistent]: Svc cmd --flag"),
+        List.of("Register[skipId, persistent]: Svc cmd"),
+        List.of("Register[ persistent ,skipId ]: Svc cmd"),
+        List.of("Register[other]: Svc cmd"),
+        List.of("Register[a]b]: Svc cmd"),
+        List.of("Register:Svc cmd"),
+        List.of("Register[persistent]:Svc cmd"),
+        List.of("Register: Svc"),
+        List.of("Register: Svc   "),
+        List.of("Register:  Svc \t cmd  "),
+        List.of("Register: Sv-c cmd"),
+        List.of("Register"),
+        List.of("Register:"),
+        List.of("Registered: Svc cmd"),
+        List.of("register: Svc cmd"),
+
+        // pipes
+        List.of("| Text | Markdown"),
+        List.of("|Text|Markdown"),
+        List.of("   \t| Text[x] | Markdown[y]"),
+        List.of("| Text | "),
+        List.of("|"),
+        List.of("| "),
+        List.of("||"),
+        List.of("| | Text"),
+        List.of("| Bad-Name | Markdown"),
+        List.of("| Text[a]b] | Markdown"),
+        List.of("| Text[a}b] | Markdown"),
+        List.of("| Text [x] | Markdown"),
+        List.of("Markdown: a", "| Text | Markdown", "| Text | Markdown"),
+
+        // anything else
+        List.of("-- x"),
+        List.of(": x"),
+        List.of("[x]: y"),
+        List.of("~~~"),
+        List.of("   ", "\t", "")
+    );
+
+    public void testLexerMatchesRegularExpressions() {
+        for (List<String> lines : CASES) {
+            List<Instruction> expected = RegexInstructionParser.parse(lines, "source");
+            List<Instruction> actual = InstructionParser.parse(lines.stream(), "source").toList();
+            if (!actual.equals(expected)) {
+                throw new AssertionError("Input " + escape(lines) + "\n expected " + expected + "\n but was  " + actual);
+            }
+        }
+    }
+
+    private static String escape(List<String> lines) {
+        return lines.stream()
+            .map(line -> '"' + line.replace("\r", "\\r").replace("\n", "\\n").replace("\u2028", "\\u2028") + '"')
+            .toList()
+            .toString();
+    }
+}
@@ -0,0 +1,66 @@
+package lvp.skills.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Plain test class without a test framework, Surefire runs its public test methods.
+// Globs are expanded in a temporary directory below the working directory, so that
+// the ignore rules given like on the command line apply to it.
+public class PathParserTest {
+
+    public void testGlobLeavesOutIgnoredFiles() throws IOException {
+        Path dir = Files.createTempDirectory(Path.of("").toAbsolutePath(), "lvp-glob");
+        try {
+            Files.createDirectories(dir.resolve("src"));
+            Files.createDirectories(dir.resolve("build"));
+            Files.createDirectories(dir.resolve("gen"));
+            Files.writeString(dir.resolve("src/a.java"), "");
+            Files.writeString(dir.resolve("build/b.java"), "");
+            Files.writeString(dir.resolve("gen/c.java"), "");
+            Files.writeString(dir.resolve("src/d.java"), "");
+            Files.writeString(dir.resolve(".gitignore"), "gen/\nsrc/d.java\n");
+
+            List<Path> found = PathParser.parse(glob(dir), IgnoreRules.of(List.of("build"))).orElse(List.of());
+            check(found.equals(List.of(dir.resolve("src/a.java"))), "expected only src/a.java but found " + found);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testGlobFollowsLinks() throws IOException {
+        Path dir = Files.createTempDirectory(Path.of("").toAbsolutePath(), "lvp-glob");
+        Path target = Files.createTempDirectory("lvp-target");
+        try {
+            Files.writeString(target.resolve("linked.java"), "");
+            try {
+                Files.createSymbolicLink(dir.resolve("link"), target);
+            } catch (UnsupportedOperationException | IOException e) {
+                return; // No links on this file system
+            }
+
+            List<Path> found = PathParser.parse(glob(dir), IgnoreRules.of(List.of())).orElse(List.of());
+            check(found.equals(List.of(dir.resolve("link/linked.java"))), "expected link/linked.java but found " + found);
+        } finally {
+            delete(dir);
+            delete(target);
+        }
+    }
+
+    private static String glob(Path dir) {
+        return Path.of("").toAbsolutePath().relativize(dir).toString().replace('\\', '/') + "/**.java";
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
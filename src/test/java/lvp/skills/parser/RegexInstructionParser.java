@@ -0,0 +1,98 @@
+package lvp.skills.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import lvp.skills.IdGen;
+import lvp.skills.parser.InstructionParser.*;
+
+// The instruction grammar as regular expressions, as InstructionParser recognized it before
+// the lexer. Only used as reference, ids are derived in stable mode.
+class RegexInstructionParser {
+    private static final Pattern SINGLE_LINE_COMMAND = Pattern.compile("^(\\w+)(?:\\[([^}]+)\\])?:\\s*(.+)$");
+    private static final Pattern BLOCK_START = Pattern.compile("^(\\w+)(?:\\[([^}]+)\\])?:\\s*$");
+    private static final Pattern SINGLE_LINE_COMMAND_CONTENTLESS = Pattern.compile("^(\\w+)(?:\\[([^}]+)\\])?\\s*$");
+    private static final Pattern REGISTER = Pattern.compile("^Register(?:\\[([^}]+)\\])?:\\s+(\\w+)\\s+(.+)$");
+    private static final Pattern PIPE_LINE = Pattern.compile("^\\s*\\|(.+)$");
+    private static final Pattern PIPE_ENTRY = Pattern.compile("^(\\w+)(?:\\[([^}]+)\\])?$");
+
+    private RegexInstructionParser() {}
+
+    static List<Instruction> parse(List<String> lines, String sourceId) {
+        List<Instruction> out = new ArrayList<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        String[] last = {""};
+        String blockName = null, blockId = null;
+        StringJoiner block = null;
+
+        for (String line : lines) {
+            if (line.isBlank()) continue;
+            if (block != null) {
+                if (!line.equals("~~~")) {
+                    block.add(line);
+                    continue;
+                }
+                String content = block.toString();
+                last[0] = blockId != null ? blockId : derive(occurrences, sourceId, blockName, content);
+                out.add(new Command(blockName, last[0], content));
+                block = null;
+                continue;
+            }
+
+            Matcher pipe = PIPE_LINE.matcher(line);
+            if (pipe.matches()) {
+                String[] entries = pipe.group(1).split("\\|");
+                List<CommandRef> commands = IntStream.range(0, entries.length)
+                    .mapToObj(i -> {
+                        Matcher m = PIPE_ENTRY.matcher(entries[i].strip());
+                        if (!m.matches()) return null;
+                        last[0] = m.group(2) != null ? m.group(2) : derive(occurrences, sourceId, last[0], Integer.toString(i), m.group(1));
+                        return new CommandRef(m.group(1), last[0]);
+                    })
+                    .filter(Objects::nonNull)
+                    .toList();
+                if (!commands.isEmpty()) out.add(new Pipe(commands));
+                continue;
+            }
+
+            Matcher register = REGISTER.matcher(line);
+            if (register.matches()) {
+                List<String> flags = register.group(1) == null ? List.of() : Arrays.stream(register.group(1).split(",")).map(String::strip).toList();
+                out.add(new Register(register.group(2), register.group(3), flags.contains("skipId"), flags.contains("persistent")));
+                continue;
+            }
+
+            Matcher single = SINGLE_LINE_COMMAND.matcher(line).matches() ? SINGLE_LINE_COMMAND.matcher(line) : SINGLE_LINE_COMMAND_CONTENTLESS.matcher(line);
+            if (single.matches()) {
+                String content = single.groupCount() == 3 ? single.group(3) : "";
+                last[0] = single.group(2) != null ? single.group(2) : derive(occurrences, sourceId, single.group(1), content);
+                out.add(new Command(single.group(1), last[0], content));
+                continue;
+            }
+
+            Matcher start = BLOCK_START.matcher(line);
+            if (start.matches()) {
+                blockName = start.group(1);
+                blockId = start.group(2);
+                block = new StringJoiner("\n");
+                continue;
+            }
+            out.add(new Unknown(line));
+        }
+        return out;
+    }
+
+    private static String derive(Map<String, Integer> occurrences, String... parts) {
+        String id = IdGen.hashID(parts);
+        int occurrence = occurrences.merge(id, 1, Integer::sum) - 1;
+        return occurrence == 0 ? id : IdGen.hashID(id, Integer.toString(occurrence));
+    }
+}